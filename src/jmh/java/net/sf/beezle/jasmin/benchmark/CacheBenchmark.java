@@ -0,0 +1,82 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.benchmark;
+
+import net.sf.beezle.jasmin.cache.util.TestCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Cache lookups and adds; run with -t to measure contention. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+    private static final int KEYS = 1024;
+
+    private TestCache large;
+    private TestCache small;
+    private String[] keys;
+
+    @State(Scope.Thread)
+    public static class Position {
+        public int next;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key" + i;
+        }
+        large = new TestCache(Integer.MAX_VALUE);
+        small = new TestCache(KEYS);
+        for (String key : keys) {
+            large.get(key);
+        }
+    }
+
+    private String key(Position position) {
+        position.next = (position.next + 1) & (KEYS - 1);
+        return keys[position.next];
+    }
+
+    /** hits only */
+    @Benchmark
+    public String lookup(Position position) {
+        return large.lookup(key(position));
+    }
+
+    /** about half of the keys fit into the cache, misses add and evict */
+    @Benchmark
+    public String getWithEviction(Position position) throws IOException {
+        return small.get(key(position));
+    }
+}
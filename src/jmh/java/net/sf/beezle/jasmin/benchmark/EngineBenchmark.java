@@ -0,0 +1,149 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.benchmark;
+
+import net.sf.beezle.jasmin.descriptor.Base;
+import net.sf.beezle.jasmin.model.Engine;
+import net.sf.beezle.jasmin.model.References;
+import net.sf.beezle.jasmin.model.Repository;
+import net.sf.beezle.jasmin.model.Request;
+import net.sf.beezle.jasmin.model.Resolver;
+import net.sf.beezle.sushi.fs.World;
+import net.sf.beezle.sushi.graph.CyclicDependency;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Repository, References and Engine on the test repository, see src/test/resources. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+    private static final String PATH = "two+variant.tree/js-min/foo:bar";
+
+    private Repository repository;
+    private Request request;
+    private References js;
+    private References css;
+    private Engine hot;
+    private Engine cold;
+
+    /** Separate repository, so clearing its plans doesn't affect the other benchmarks. */
+    @State(Scope.Benchmark)
+    public static class Uncached {
+        private Repository repository;
+        private Request request;
+
+        @Setup
+        public void setup() throws IOException {
+            repository = load();
+            request = Request.parse(PATH);
+        }
+
+        @Setup(Level.Invocation)
+        public void clearPlans() {
+            repository.plans().resize(0);
+        }
+    }
+
+    private static Repository load() throws IOException {
+        World world;
+        Resolver resolver;
+
+        world = new World();
+        resolver = new Resolver(world, true);
+        resolver.add(Base.CLASSPATH, world.guessProjectHome(EngineBenchmark.class).join("src/test/resources"));
+        return Repository.load(resolver);
+    }
+
+    @Setup
+    public void setup() throws IOException, CyclicDependency {
+        repository = load();
+        request = Request.parse(PATH);
+        js = repository.resolve(request);
+        css = repository.resolve(Request.parse("foo/css-min/lead"));
+        hot = new Engine(repository);
+        hot.process(PATH);
+        cold = new Engine(repository);
+    }
+
+    @Setup(Level.Invocation)
+    public void freeCold() {
+        cold.free();
+    }
+
+    @Benchmark
+    public List<String> sequence() throws CyclicDependency {
+        return repository.sequence("foo", "two", "variant.tree");
+    }
+
+    /** plan cache hit */
+    @Benchmark
+    public References resolveCached() throws IOException, CyclicDependency {
+        return repository.resolve(request);
+    }
+
+    /** full resolution: module lookup, dependency sort and file selection */
+    @Benchmark
+    public References resolveUncached(Uncached uncached) throws IOException, CyclicDependency {
+        return uncached.repository.resolve(uncached.request);
+    }
+
+    @Benchmark
+    public String minimizeJs() throws IOException {
+        return write(js);
+    }
+
+    @Benchmark
+    public String minimizeCss() throws IOException {
+        return write(css);
+    }
+
+    private static String write(References references) throws IOException {
+        StringWriter writer;
+
+        writer = new StringWriter();
+        references.writeTo(writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String processHot() throws IOException {
+        return hot.process(PATH);
+    }
+
+    @Benchmark
+    public String processCold() throws IOException {
+        return cold.process(PATH);
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.benchmark;
+
+import net.sf.beezle.jasmin.model.Repository;
+import net.sf.beezle.jasmin.model.Resolver;
+import net.sf.beezle.sushi.fs.World;
+import net.sf.beezle.sushi.fs.file.FileNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and linking large libraries the way jars on the classpath are loaded: a descriptor with an auto-files
+ * include, and one file per module, each depending on its predecessor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepositoryBenchmark {
+    @Param({ "1000", "10000", "50000" })
+    public int size;
+
+    private Resolver resolver;
+    private FileNode base;
+
+    @Setup
+    public void setup() throws IOException {
+        World world;
+        FileNode auto;
+
+        world = new World();
+        resolver = new Resolver(world, false);
+        base = world.getTemp().createTempDirectory();
+        base.join("META-INF").mkdir();
+        base.join(Repository.METAINF_DESCRIPTOR).writeString("<library>\n  <js>auto/**/*.js</js>\n</library>\n");
+        base.join(Repository.METAINF_PROPERTIES).writeString(
+                "groupId=group\nartifactId=lib\nversion=1.0\nscmConnection=scm\n");
+        auto = base.join("auto");
+        auto.mkdir();
+        for (int i = 0; i < size; i++) {
+            auto.join("module-" + i + ".js").writeString("/* jasmin\n"
+                    + (i > 0 ? "depend = lib-auto-module-" + (i - 1) + "\n" : "") + "*/\nvar module" + i + " = 0;\n");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        base.deleteTree();
+    }
+
+    @Benchmark
+    public Repository load() throws IOException {
+        Repository repository;
+
+        repository = new Repository();
+        repository.loadLibrary(resolver, base, base.join(Repository.METAINF_DESCRIPTOR),
+                base.join(Repository.METAINF_PROPERTIES));
+        repository.link();
+        return repository;
+    }
+}
@@ -16,26 +16,66 @@
  */
 package net.sf.beezle.jasmin.cache;
 
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-
+/**
+ * Size-bounded cache with approximate lru eviction. Lookups do not lock: items are kept in a ConcurrentHashMap
+ * and a hit stamps the item with the current access tick at most once per millisecond. Eviction is serialized on a separate lock
+ * and removes the items with the oldest ticks until the cache is below its low-water mark, so the sort is
+ * amortized over many additions instead of being paid for every one of them at capacity.
+ */
 public abstract class Cache<K, V> {
-    private final LinkedHashMap<K, Item<V>> items;
+    /**
+     * Snapshot of an entry: lookups keep re-stamping items while they are sorted, and sorting on the live tick
+     * violates the comparator contract.
+     */
+    private static class Stamped<K, V> {
+        public final long tick;
+        public final K key;
+        public final Item<V> item;
+
+        public Stamped(K key, Item<V> item) {
+            this.tick = item.accessTick;
+            this.key = key;
+            this.item = item;
+        }
+    }
+
+    private static final Comparator<Stamped<?, ?>> OLDEST_FIRST = new Comparator<Stamped<?, ?>>() {
+        @Override
+        public int compare(Stamped<?, ?> left, Stamped<?, ?> right) {
+            return left.tick < right.tick ? -1 : (left.tick == right.tick ? 0 : 1);
+        }
+    };
+
+    private final ConcurrentMap<K, Item<V>> items;
     private final int maxSize;
+    /** size that eviction reduces to */
+    private final int lowWater;
+    private final Object evictLock;
 
     /** cumulated valueSize of all items. */
-    private int size;
-    private int lookups;
-    private int misses;
+    private final AtomicInteger size;
+    /** striped, so hits in different threads don't contend for the same counter */
+    private final LongAdder lookups;
+    private final LongAdder misses;
 
     public Cache(int maxSize) {
-        this.items = new LinkedHashMap<K, Item<V>>(16, 0.75f, true);
+        this.items = new ConcurrentHashMap<K, Item<V>>(16, 0.75f, Runtime.getRuntime().availableProcessors());
         this.maxSize = maxSize;
-        this.size = 0;
-        this.lookups = 0;
-        this.misses = 0;
+        this.lowWater = maxSize - maxSize / 8;
+        this.evictLock = new Object();
+        this.size = new AtomicInteger();
+        this.lookups = new LongAdder();
+        this.misses = new LongAdder();
     }
 
     public int getMaxSize() {
@@ -49,121 +89,150 @@ public abstract class Cache<K, V> {
         return value.toString();
     }
 
+    /** Called after an item was evicted to make room; not called for remove(). */
+    protected void evicted(K key, V value) {
+    }
+
     //--
 
-    public synchronized V lookup(K key) {
+    public V lookup(K key) {
         Item<V> item;
 
-        lookups++;
+        lookups.increment();
         item = items.get(key);
         if (item != null) {
-            item.accessTime = System.currentTimeMillis();
-            item.accessCount++;
+            item.touch(System.currentTimeMillis());
             return item.value;
         }
-        misses++;
+        misses.increment();
         return null;
     }
 
-    public synchronized void add(K key, V value, long created, long duration) {
+    public void add(K key, V value, long created, long duration) {
         Item<V> item;
         Item<V> concurrent;
 
         item = new Item<V>(value, created, duration);
+        item.touch(created);
         concurrent = items.put(key, item);
         if (concurrent != null) {
-            size -= valueSize(concurrent.value);
+            size.addAndGet(valueSize(item.value) - valueSize(concurrent.value));
+        } else {
+            size.addAndGet(valueSize(item.value));
+        }
+        if (size.get() > maxSize) {
+            resize(lowWater);
         }
-        size += valueSize(item.value);
-        item.accessTime = created;
-        item.accessCount++;
-        doResize(maxSize);
     }
 
     /** lookup without stats */
-    public synchronized V probe(K key) {
+    public V probe(K key) {
         Item<V> item;
 
         item = items.get(key);
         return item == null ? null : item.value;
     }
 
-    public synchronized void resize(int max) {
-        doResize(max);
+    /** @return the removed value, null if there was none */
+    public V remove(K key) {
+        Item<V> item;
+
+        item = items.remove(key);
+        if (item == null) {
+            return null;
+        }
+        size.addAndGet(-valueSize(item.value));
+        return item.value;
     }
 
-    private void doResize(int max) {
-        Iterator<Map.Entry<K, Item<V>>> iter;
+    public void resize(int max) {
+        List<Stamped<K, V>> oldest;
         Item<V> item;
 
-        if (size > max) {
-            iter = items.entrySet().iterator();
-            while (iter.hasNext()) {
-                item = iter.next().getValue();
-                size -= valueSize(item.value);
-                iter.remove();
-                if (size <= max) {
-                    break;
-                }
+        synchronized (evictLock) {
+            if (size.get() <= max) {
+                return;
             }
-            if (size < 0) {
-                throw new IllegalStateException();
-            }
-            if (items.size() == 0 && size != 0) {
-                throw new IllegalStateException();
+            oldest = oldestFirst();
+            for (Stamped<K, V> entry : oldest) {
+                item = entry.item;
+                if (items.remove(entry.key, item)) {
+                    size.addAndGet(-valueSize(item.value));
+                    evicted(entry.key, item.value);
+                    if (size.get() <= max) {
+                        break;
+                    }
+                }
             }
         }
     }
 
+    private List<Stamped<K, V>> oldestFirst() {
+        List<Stamped<K, V>> result;
+
+        result = new ArrayList<Stamped<K, V>>(items.size());
+        for (Map.Entry<K, Item<V>> entry : items.entrySet()) {
+            result.add(new Stamped<K, V>(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(result, OLDEST_FIRST);
+        return result;
+    }
+
     //--
 
-    public synchronized int items() {
+    public int items() {
         return items.size();
     }
 
-    public synchronized int size() {
-        return size;
+    public int size() {
+        return size.get();
     }
 
-    public synchronized int misses() {
-        return misses;
+    public int misses() {
+        return (int) misses.sum();
     }
 
-    public synchronized int gets() {
-        return lookups;
+    public int gets() {
+        return (int) lookups.sum();
     }
 
-    public synchronized void validate() {
+    /** Only meaningful if there are no concurrent modifications. */
+    public void validate() {
         int s;
 
         s = 0;
         for (Item<V> item : items.values()) {
             s += valueSize(item.value);
         }
-        if (s != size) {
+        if (s != size.get()) {
             throw new IllegalStateException(s + " != " + size);
         }
+        if (s < 0) {
+            throw new IllegalStateException();
+        }
     }
 
     //--
 
     @Override
-    public synchronized String toString() {
+    public String toString() {
         StringBuilder builder;
         int percent;
         int count;
+        int used;
 
         builder = new StringBuilder();
-        builder.append("size: ").append(maxSize).append(" (").append(maxSize == 0 ? 100 : (size * 100 / maxSize)).append("% used)\n");
+        used = size.get();
+        builder.append("size: ").append(maxSize).append(" (").append(maxSize == 0 ? 100 : (used * 100 / maxSize)).append("% used)\n");
         count = gets();
         if (count == 0) {
             percent = 0;
         } else {
-            percent = (count - misses) * 100 / count;
+            percent = (count - misses()) * 100 / count;
         }
         builder.append("lookups: ").append(count).append(" (").append(percent).append("% hits)\n");
-        for (Map.Entry<K, Item<V>> entry : items.entrySet()) {
-            builder.append(entry.getKey().toString()).append(": ").append(toString(entry.getValue())).append("\n");
+        for (Stamped<K, V> entry : oldestFirst()) {
+            builder.append(entry.key.toString()).append(": ").append(toString(entry.item)).append("\n");
         }
         return builder.toString();
     }
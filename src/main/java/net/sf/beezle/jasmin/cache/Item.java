@@ -17,6 +17,7 @@
 package net.sf.beezle.jasmin.cache;
 
 import java.text.SimpleDateFormat;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Item<T> {
     /** never null. */
@@ -25,7 +26,17 @@ public class Item<T> {
     public final long createTime;
     public final long duration;
 
+    // access stamps are plain fields, written without fences: eviction and statistics only need them approximately,
+    // and may see slightly outdated values from other threads. Hits don't write them every time, otherwise all
+    // cores serving a hot item would keep invalidating each other's copy of its cache line.
+
+    /** one in this many hits is counted */
+    private static final int SAMPLE = 16;
+
     public long accessTime;
+    /** orders items by recent use, with millisecond resolution; not a wall-clock time. */
+    public long accessTick;
+    /** sampled estimate */
     public int accessCount;
 
     public Item(T value, long createTime, long duration) {
@@ -36,9 +47,21 @@ public class Item<T> {
         this.createTime = createTime;
         this.duration = duration;
         this.accessTime = 0;
+        this.accessTick = 0;
         this.accessCount = 0;
     }
 
+    public void touch(long time) {
+        if (accessTime != time) {
+            // hot items are hit many times per millisecond
+            accessTime = time;
+            accessTick = System.nanoTime();
+        }
+        if (ThreadLocalRandom.current().nextInt(SAMPLE) == 0) {
+            accessCount += SAMPLE;
+        }
+    }
+
     public static final SimpleDateFormat FORMATTER = new SimpleDateFormat("dd.MM.yy HH:mm:ss");
 
     /** does *not* include the value. */
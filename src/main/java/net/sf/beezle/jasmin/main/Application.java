@@ -18,7 +18,10 @@ package net.sf.beezle.jasmin.main;
 
 import net.sf.beezle.jasmin.descriptor.Base;
 import net.sf.beezle.jasmin.model.Attributes;
+import net.sf.beezle.jasmin.model.ContentStore;
+import net.sf.beezle.jasmin.model.Encoding;
 import net.sf.beezle.jasmin.model.Engine;
+import net.sf.beezle.jasmin.model.Hashing;
 import net.sf.beezle.jasmin.model.Repository;
 import net.sf.beezle.jasmin.model.Resolver;
 import net.sf.beezle.sushi.fs.Node;
@@ -39,6 +42,13 @@ public class Application {
         String siteId;
         Integer expires;
         Resolver resolver;
+        List<Encoding> encodings;
+        ContentStore archive;
+        ContentStore store;
+        java.io.File file;
+        boolean offHeap;
+        int parallel;
+        Hashing hashing;
 
         str = getString(config, "project", null);
         if (str != null) {
@@ -50,7 +60,32 @@ public class Application {
         applicationDescriptor = getApplicationDescriptor(config, docroot, resolver);
         siteId = getString(config, "siteId", docroot.getName());
         expires = getInteger(config, "expires", Application.MANY_YEARS);
-        return new Application(config.getServletContext(), resolver, siteId, applicationDescriptor, expires);
+        encodings = Encoding.createAll(getString(config, "encodings", Encoding.GZIP));
+        str = getString(config, "archive", null);
+        if (str != null) {
+            file = new java.io.File(str);
+            if (!file.isAbsolute()) {
+                // relative to the webapp, where Precompile puts it by default
+                file = new java.io.File(new java.io.File(docroot.getURI()), str);
+            }
+            archive = ContentStore.archive(file.getCanonicalFile());
+        } else {
+            archive = null;
+        }
+        str = getString(config, "store", null);
+        if (str != null) {
+            // contents built at runtime go here, never into the archive
+            store = new ContentStore(new java.io.File(str).getCanonicalFile(), archive);
+            // in days; the store would grow without bound otherwise
+            store.cleanup(1000L * 60 * 60 * 24 * getInteger(config, "storeMaxAge", 30));
+        } else {
+            store = archive;
+        }
+        offHeap = getBoolean(config, "offHeap", false);
+        parallel = getInteger(config, "parallel", Runtime.getRuntime().availableProcessors());
+        hashing = Hashing.create(getString(config, "hashing", Hashing.SHA));
+        return new Application(config.getServletContext(), resolver, siteId, applicationDescriptor, expires, encodings, store,
+                offHeap, parallel, hashing);
     }
 
     public static FileNode file(World world, String str) throws IOException {
@@ -96,14 +131,44 @@ public class Application {
      */
     public final Integer expires;
 
+    /** Cache-Control value for expires, prepared once instead of for every request; null if expires is null. */
+    public final String maxAge;
+
     public static final int MANY_YEARS = 60 * 60 * 24 * 365 * 15;
 
+    /** Content-Encodings built for every content, in order of preference. */
+    public final List<Encoding> encodings;
+
+    /** Persists contents across restarts and reloads; may be null. */
+    public final ContentStore store;
+
+    /** Keep cached contents off the heap; memory-mapped from the store if there is one. */
+    public final boolean offHeap;
+
+    /** Number of threads compiling the files of a bundle; 1 to compile them in the request thread. */
+    public final int parallel;
+
+    /** Computes content keys. */
+    public final Hashing hashing;
+
     public Application(ServletContext context, Resolver resolver, String name, Node applicationDescriptor, Integer expires) {
+        this(context, resolver, name, applicationDescriptor, expires, Encoding.createAll(Encoding.GZIP), null, false, 1,
+                Hashing.create(Hashing.SHA));
+    }
+
+    public Application(ServletContext context, Resolver resolver, String name, Node applicationDescriptor, Integer expires,
+                       List<Encoding> encodings, ContentStore store, boolean offHeap, int parallel, Hashing hashing) {
         this.context = context;
         this.resolver = resolver;
         this.name = name;
         this.applicationDescriptor = applicationDescriptor;
         this.expires = expires;
+        this.maxAge = expires == null ? null : "max-age=" + expires;
+        this.encodings = encodings;
+        this.store = store;
+        this.offHeap = offHeap;
+        this.parallel = parallel;
+        this.hashing = hashing;
     }
 
     public String getName() {
@@ -133,7 +198,7 @@ public class Application {
                 repository.loadApplication(resolver, docroot, applicationDescriptor);
             }
             reloadFiles = repository.link();
-            return new Object[] { new Engine(repository), reloadFiles };
+            return new Object[] { new Engine(repository, encodings, store, offHeap, parallel, hashing), reloadFiles };
         } catch (Throwable e) {
             resolver.reset();
             if (e instanceof IOException) {
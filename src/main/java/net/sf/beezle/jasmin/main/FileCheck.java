@@ -18,6 +18,7 @@ package net.sf.beezle.jasmin.main;
 
 import net.sf.beezle.jasmin.descriptor.Base;
 import net.sf.beezle.jasmin.model.File;
+import net.sf.beezle.jasmin.model.MimeType;
 import net.sf.beezle.jasmin.model.Module;
 import net.sf.beezle.jasmin.model.References;
 import net.sf.beezle.jasmin.model.Repository;
@@ -31,12 +32,23 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class FileCheck {
     private static final Logger LOG = Logger.getLogger(FileCheck.class);
@@ -59,6 +71,7 @@ public class FileCheck {
         check = new FileCheck();
         check.minimizeApplication(getWepappDir((FileNode) world.getWorking().join("target")));
         System.out.println("file-check: " + check.size() + " files ...");
+        System.out.print(check.report());
         check = check.exceptions();
         if (check.size() > 0) {
             System.err.println("failed with "  + check.size() + " errors:");
@@ -69,7 +82,7 @@ public class FileCheck {
         }
     }
 
-    private static FileNode getWepappDir(FileNode base) throws IOException {
+    static FileNode getWepappDir(FileNode base) throws IOException {
         for (FileNode dir : base.list()) {
             if (dir.join("WEB-INF").isDirectory()) {
                 return dir;
@@ -79,13 +92,15 @@ public class FileCheck {
     }
 
     private final Map<Node, List<Exception>> map;
+    private final Map<Node, Timing> timings;
 
     public FileCheck() {
-        this(new HashMap<Node, List<Exception>>());
+        this(new ConcurrentHashMap<Node, List<Exception>>());
     }
 
     public FileCheck(Map<Node, List<Exception>> map) {
         this.map = map;
+        this.timings = new ConcurrentHashMap<Node, Timing>();
     }
 
     public FileCheck exceptions() {
@@ -114,9 +129,37 @@ public class FileCheck {
         return result.toString();
     }
 
+    /** @return one line per compiled file, slowest first: ms, input chars, output chars, ratio and uri */
+    public String report() {
+        List<Map.Entry<Node, Timing>> entries;
+        StringBuilder result;
+        Timing timing;
+
+        entries = new ArrayList<Map.Entry<Node, Timing>>(timings.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Node, Timing>>() {
+            @Override
+            public int compare(Map.Entry<Node, Timing> left, Map.Entry<Node, Timing> right) {
+                long l;
+                long r;
+
+                l = left.getValue().ms;
+                r = right.getValue().ms;
+                return l < r ? 1 : (l == r ? 0 : -1);
+            }
+        });
+        result = new StringBuilder();
+        for (Map.Entry<Node, Timing> entry : entries) {
+            timing = entry.getValue();
+            result.append(String.format(Locale.ROOT, "%6d ms %9d -> %9d chars %5.1f%%  %s%n",
+                    timing.ms, timing.input, timing.output,
+                    timing.input == 0 ? 100.0 : 100.0 * timing.output / timing.input, entry.getKey().getURI()));
+        }
+        return result.toString();
+    }
+
     public void add(Node node) {
         if (!map.containsKey(node)) {
-            map.put(node, new ArrayList<Exception>());
+            map.put(node, new CopyOnWriteArrayList<Exception>());
         }
     }
 
@@ -124,6 +167,23 @@ public class FileCheck {
         map.get(node).add(e);
     }
 
+    public Timing timing(Node node) {
+        return timings.get(node);
+    }
+
+    /** Compile time and sizes of a file */
+    public static class Timing {
+        public final long ms;
+        public final int input;
+        public final int output;
+
+        public Timing(long ms, int input, int output) {
+            this.ms = ms;
+            this.input = input;
+            this.output = output;
+        }
+    }
+
     //--
 
     public void minimizeClasspath() throws IOException {
@@ -132,10 +192,15 @@ public class FileCheck {
 
         world = new World();
         resolver = new Resolver(world);
-        minimize(false, Repository.load(resolver), world);
+        minimize(false, Repository.load(resolver));
     }
 
     public void minimizeApplication(FileNode application) throws IOException {
+        minimize(false, loadApplication(application));
+    }
+
+    /** Loads the repository of a webapp without a servlet container; LOCALHOST resources are not available. */
+    public static Repository loadApplication(FileNode application) throws IOException {
         World world;
         Repository repository;
         Node descriptor;
@@ -158,34 +223,80 @@ public class FileCheck {
             repository.loadApplication(resolver, application, descriptor);
         }
         repository.link();
-        minimize(false, repository, application.getWorld());
+        return repository;
+    }
+
+    public void minimize(boolean http, Repository repository) throws IOException {
+        minimize(http, repository, Runtime.getRuntime().availableProcessors());
     }
 
+    /** @deprecated files are compiled in memory now, world is not needed; use minimize(http, repository) */
+    @Deprecated
     public void minimize(boolean http, Repository repository, World world) throws IOException {
+        minimize(http, repository);
+    }
+
+    /** Compiles every file once, in memory, using the specified number of threads */
+    public void minimize(boolean http, Repository repository, int threads) throws IOException {
+        Map<Node, File> files;
         Node src;
-        Node dest;
-        long started;
-        Writer writer;
+        ExecutorService executor;
+        List<Future<?>> futures;
 
+        files = new LinkedHashMap<Node, File>();
         for (Module module : repository.modules()) {
             for (File file : module.files()) {
                 src = file.getNormal();
                 if (http || !"http".equals(src.getRoot().getFilesystem().getScheme())) {
-                    add(src);
-                    try {
-                        dest = world.getTemp().createTempFile();
-                        LOG.info("fileCheck module=" + module.getName() + ", file=" + src);
-                        started = System.currentTimeMillis();
-                        writer = dest.createWriter();
-                        References.create(file.getType(), true, src).writeTo(writer);
-                        writer.close();
-                        LOG.info("done, " + (System.currentTimeMillis() - started) + " ms");
-                        dest.deleteFile();
-                    } catch (Exception e) {
-                        add(src, e);
+                    if (!files.containsKey(src)) {
+                        add(src);
+                        files.put(src, file);
+                    }
+                }
+            }
+        }
+        executor = Executors.newFixedThreadPool(threads);
+        try {
+            futures = new ArrayList<Future<?>>();
+            for (final Map.Entry<Node, File> entry : files.entrySet()) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        minimize(entry.getKey(), entry.getValue().getType());
                     }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("file check interrupted");
+                } catch (ExecutionException e) {
+                    // minimize catches all exceptions
+                    throw new IllegalStateException(e.getCause());
                 }
             }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void minimize(Node src, MimeType type) {
+        long started;
+        StringWriter writer;
+        int input;
+
+        try {
+            LOG.info("fileCheck file=" + src);
+            input = src.readString().length();
+            started = System.currentTimeMillis();
+            writer = new StringWriter();
+            References.create(type, true, src).writeTo(writer);
+            timings.put(src, new Timing(System.currentTimeMillis() - started, input, writer.getBuffer().length()));
+            LOG.info("done, " + (System.currentTimeMillis() - started) + " ms");
+        } catch (Exception e) {
+            add(src, e);
         }
     }
 
@@ -0,0 +1,141 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.main;
+
+import net.sf.beezle.jasmin.model.ContentStore;
+import net.sf.beezle.jasmin.model.Encoding;
+import net.sf.beezle.jasmin.model.Engine;
+import net.sf.beezle.jasmin.model.Repository;
+import net.sf.beezle.jasmin.model.Warmup;
+import net.sf.beezle.sushi.fs.World;
+import net.sf.beezle.sushi.fs.file.FileNode;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Build-time compiler: writes all bundles of a webapp into a content store with a manifest. Point the servlet's
+ * "archive" parameter to it to serve these bundles without compiling anything in production.
+ */
+public class Precompile {
+    private static final Logger LOG = Logger.getLogger(Precompile.class);
+
+    public static final String DEFAULT_ARCHIVE = "WEB-INF/jasmin-archive";
+
+    /** arguments: [project directory [archive directory [encodings]]] */
+    public static void main(String[] args) throws IOException {
+        World world;
+        FileNode webapp;
+        java.io.File dest;
+        Precompile precompile;
+        Map<String, String> manifest;
+
+        // usually called via wsd-app parent pom - without log4j config in place ...
+        ConsoleAppender ca = new ConsoleAppender();
+        ca.setWriter(new OutputStreamWriter(System.out));
+        ca.setLayout(new PatternLayout("%-5p [%t]: %m%n"));
+        Logger.getRootLogger().setLevel(Level.ERROR);
+        Logger.getRootLogger().addAppender(ca);
+
+        world = new World();
+        if (args.length > 0) {
+            world.setWorking(world.file(args[0]));
+        }
+        webapp = FileCheck.getWepappDir((FileNode) world.getWorking().join("target"));
+        dest = args.length > 1 ? new java.io.File(args[1]) : new java.io.File(new java.io.File(webapp.getURI()), DEFAULT_ARCHIVE);
+        dest = dest.getCanonicalFile();
+        // otherwise, the engine would serve the previous output, and stale contents would ship with the archive
+        if (ContentStore.isArchive(dest)) {
+            world.file(dest).deleteTree();
+        } else if (dest.exists() && !isEmptyDirectory(dest)) {
+            throw new IOException(dest + ": not an archive, refusing to overwrite it");
+        }
+        precompile = new Precompile(FileCheck.loadApplication(webapp), new ContentStore(dest),
+                Encoding.createAll(args.length > 2 ? args[2] : Encoding.GZIP));
+        manifest = precompile.run();
+        System.out.println("precompile: " + manifest.size() + " paths, " + new HashSet<String>(manifest.values()).size()
+                + " contents, " + precompile.failed() + " failed -> " + dest);
+    }
+
+    private static boolean isEmptyDirectory(java.io.File dir) {
+        String[] names;
+
+        names = dir.list();
+        return names != null && names.length == 0;
+    }
+
+    private final ContentStore store;
+    private final Engine engine;
+    private int failed;
+
+    public Precompile(Repository repository, ContentStore store, List<Encoding> encodings) {
+        if (store.hasManifest()) {
+            throw new IllegalArgumentException(store.getDirectory() + ": store already has a manifest");
+        }
+        this.store = store;
+        this.engine = new Engine(repository, encodings, store, false, Runtime.getRuntime().availableProcessors());
+        this.failed = 0;
+    }
+
+    /** Precompiles all module combinations */
+    public Map<String, String> run() throws IOException {
+        return run(Warmup.paths(engine.repository));
+    }
+
+    /** @return the manifest written to the store */
+    public Map<String, String> run(List<String> paths) throws IOException {
+        Map<String, String> manifest;
+        String hash;
+
+        manifest = new TreeMap<String, String>();
+        for (String path : paths) {
+            try {
+                engine.process(path);
+            } catch (IOException e) {
+                failed(path, e);
+                continue;
+            } catch (RuntimeException e) {
+                failed(path, e);
+                continue;
+            }
+            // probe right after processing, it's the most recent entry and thus not evicted
+            hash = engine.hashCache.probe(path);
+            if (hash != null) {
+                manifest.put(path, hash);
+            }
+        }
+        store.writeManifest(manifest);
+        return manifest;
+    }
+
+    private void failed(String path, Exception e) {
+        failed++;
+        LOG.error(path + ": " + e.getMessage(), e);
+    }
+
+    public int failed() {
+        return failed;
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.main;
+
+import net.sf.beezle.sushi.fs.Node;
+import net.sf.beezle.sushi.fs.file.FileNode;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread that detects modified reload files and invokes invalidate or reload. Requests keep using the
+ * current engine until reload has built and installed the new one. Uses a WatchService if all reload files are
+ * plain files, and polls last modified dates otherwise.
+ */
+public abstract class Reloader extends Thread {
+    private static final Logger LOG = Logger.getLogger(Reloader.class);
+
+    /** events are collected until the file system has been quiet for this many milliseconds */
+    public static final long DEBOUNCE = 200;
+
+    private final long interval;
+    private volatile List<Node> files;
+    private volatile long loaded;
+
+    public Reloader(String name, long interval, List<Node> files, long loaded) {
+        super("jasmin-reloader-" + name);
+        setDaemon(true);
+        this.interval = interval;
+        this.files = files;
+        this.loaded = loaded;
+    }
+
+    public List<Node> getFiles() {
+        return files;
+    }
+
+    public long getLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                if (watchable()) {
+                    try {
+                        watch();
+                        continue;
+                    } catch (IOException e) {
+                        LOG.warn("cannot watch reload files, falling back to polling", e);
+                    }
+                }
+                poll();
+            }
+        } catch (InterruptedException e) {
+            // shutdown
+        }
+    }
+
+    public void shutdown() {
+        interrupt();
+    }
+
+    private boolean watchable() {
+        for (Node node : files) {
+            if (!(node instanceof FileNode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //-- polling
+
+    /** Returns after a reload, to re-check the new reload files. */
+    private void poll() throws InterruptedException {
+        while (true) {
+            Thread.sleep(interval);
+            try {
+                if (check()) {
+                    return;
+                }
+            } catch (IOException e) {
+                LOG.error("reload failed", e);
+            } catch (RuntimeException e) {
+                LOG.error("reload failed", e);
+            }
+        }
+    }
+
+    /** @return true if reload was invoked */
+    public boolean check() throws IOException {
+        long started;
+        long lastModified;
+        List<Node> changed;
+
+        started = System.currentTimeMillis();
+        changed = new ArrayList<Node>();
+        for (Node node : files) {
+            lastModified = node.getLastModified();
+            if (lastModified > loaded) {
+                if (lastModified > started) {
+                    throw new IOException(node.getURI() + " has lastModifiedDate in the future: "
+                            + new Date(lastModified) + "(now: " + new Date(started) + ")");
+                }
+                changed.add(node);
+            }
+        }
+        return !changed.isEmpty() && changed(started, changed);
+    }
+
+    //-- watching
+
+    /** Returns after a reload, to watch the new reload files. */
+    private void watch() throws IOException, InterruptedException {
+        WatchService service;
+        Map<Path, Node> nodes;
+        Path path;
+        Path dir;
+        WatchKey key;
+        Set<Node> changed;
+        long started;
+
+        service = FileSystems.getDefault().newWatchService();
+        try {
+            nodes = new HashMap<Path, Node>();
+            for (Node node : files) {
+                path = Paths.get(node.getURI()).toAbsolutePath();
+                nodes.put(path, node);
+                dir = path.getParent();
+                if (dir != null) {
+                    dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+            LOG.info("watching " + nodes.size() + " reload files");
+            while (true) {
+                changed = new LinkedHashSet<Node>();
+                key = service.take();
+                started = System.currentTimeMillis();
+                while (key != null) {
+                    if (!collect(key, nodes, changed)) {
+                        // overflow: we might have missed something
+                        changed.addAll(files);
+                    }
+                    key = service.poll(DEBOUNCE, TimeUnit.MILLISECONDS);
+                }
+                if (!changed.isEmpty()) {
+                    try {
+                        if (changed(started, new ArrayList<Node>(changed))) {
+                            return;
+                        }
+                    } catch (IOException e) {
+                        LOG.error("reload failed", e);
+                    } catch (RuntimeException e) {
+                        LOG.error("reload failed", e);
+                    }
+                }
+            }
+        } finally {
+            service.close();
+        }
+    }
+
+    /** @return false on overflow */
+    private static boolean collect(WatchKey key, Map<Path, Node> nodes, Set<Node> changed) {
+        Path dir;
+        Node node;
+        boolean result;
+
+        dir = (Path) key.watchable();
+        result = true;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                result = false;
+            } else {
+                node = nodes.get(dir.resolve((Path) event.context()));
+                if (node != null) {
+                    changed.add(node);
+                }
+            }
+        }
+        key.reset();
+        return result;
+    }
+
+    //--
+
+    /** @return true if reload was invoked */
+    private boolean changed(long started, List<Node> changed) throws IOException {
+        // update before reloading to not retry broken files, and to detect changes made while reloading
+        loaded = started;
+        if (invalidate(changed)) {
+            LOG.info("invalidated - changed files: " + changed);
+            return false;
+        }
+        LOG.info("reloading - changed files: " + changed);
+        files = reload();
+        LOG.info("reloaded in " + (System.currentTimeMillis() - started) + " ms");
+        return true;
+    }
+
+    /**
+     * Drops output affected by the changed files.
+     *
+     * @return false if the changes need a reload
+     */
+    protected abstract boolean invalidate(List<Node> changed);
+
+    /**
+     * Builds and installs a new engine.
+     *
+     * @return reload files of the new engine
+     */
+    protected abstract List<Node> reload() throws IOException;
+}
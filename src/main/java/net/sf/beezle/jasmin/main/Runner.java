@@ -17,9 +17,8 @@
 package net.sf.beezle.jasmin.main;
 
 import net.sf.beezle.jasmin.model.Engine;
-import net.sf.beezle.jasmin.model.Module;
-import net.sf.beezle.jasmin.model.Repository;
 import net.sf.beezle.jasmin.model.Resolver;
+import net.sf.beezle.jasmin.model.Warmup;
 import net.sf.beezle.sushi.fs.Node;
 import net.sf.beezle.sushi.fs.World;
 import net.sf.beezle.sushi.fs.file.FileNode;
@@ -65,43 +64,15 @@ public class Runner {
     }
 
     public Runner add(Node log, String application, int max) throws IOException {
-        for (String line : log.readLines()) {
-            line = line.trim();
-            line = line.substring(line.indexOf('|') + 1);
-            if (line.startsWith(application)) {
-                line = line.substring(application.length());
-                line = line.substring(0, line.indexOf(' '));
-                paths.add(line);
-                if (paths.size() == max) {
-                    break;
-                }
-            }
-        }
+        paths.addAll(Warmup.paths(log, application, max));
         return this;
     }
 
     public Runner addAll() {
-        Repository repository;
-        List<String> variants;
-
-        repository = engine.repository;
-        variants = repository.getVariants();
-        for (Module module : repository.modules()) {
-            addTypes(module, "head");
-            for (String variant : variants) {
-                addTypes(module, variant);
-            }
-        }
+        paths.addAll(Warmup.paths(engine.repository));
         return this;
     }
 
-    public void addTypes(Module module, String variant) {
-        add(module.getName() + "/js/" + variant);
-        add(module.getName() + "/js-min/" + variant);
-        add(module.getName() + "/css/" + variant);
-        add(module.getName() + "/css-min/" + variant);
-    }
-
     public Runner add(String... pathList) {
         this.paths.addAll(Arrays.asList(pathList));
         return this;
@@ -16,11 +16,13 @@
  */
 package net.sf.beezle.jasmin.main;
 
+import net.sf.beezle.jasmin.model.Content;
 import net.sf.beezle.jasmin.model.Engine;
 import net.sf.beezle.jasmin.model.File;
 import net.sf.beezle.jasmin.model.Module;
 import net.sf.beezle.jasmin.model.Resolver;
 import net.sf.beezle.jasmin.model.Source;
+import net.sf.beezle.jasmin.model.Warmup;
 import net.sf.beezle.sushi.fs.Node;
 import net.sf.beezle.sushi.fs.World;
 import net.sf.beezle.sushi.fs.file.FileNode;
@@ -46,12 +48,11 @@ import java.net.UnknownHostException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class Servlet extends HttpServlet {
     public static final Logger LOG = Logger.getLogger(Servlet.class);
@@ -67,27 +68,50 @@ public class Servlet extends HttpServlet {
         }
     }
 
-    // re-create engine if one of these files was changed; null if life resolving is off
-    private List<Node> reloadFiles;
-    private long loaded;
     private long otherVmStartupDate;
 
     private FileNode docroot;
     private Application application;
+    private long reloadInterval;
+    private boolean warmUp;
+    private int warmUpThreads;
+    /** maximum number of paths to warm up */
+    private int warmUpMax;
+    /** null to warm up all module combinations only */
+    private Node warmUpLog;
+    private String warmUpLogPrefix;
+    private UserAgents userAgents;
 
     // lazy init, because I need a URL first:
-    private Engine engine;
+    private Node localhost;
+    // replaced by the reloader; requests pick up the current engine once and keep it
+    private volatile Engine engine;
+    // re-creates the engine if one of the reload files was changed; null if life resolving is off
+    private volatile Reloader reloader;
+    // null if warm-up is off
+    private volatile Warmup warmup;
+    // warm-up of the first engine, which gates readiness; null if warm-up is off
+    private volatile Warmup initialWarmup;
 
     public Servlet() {
         // NOT longer than 10 years because the date format has only 2 digits for the year.
         this.otherVmStartupDate = VM_STARTUP_DATE.getTime() - TEN_YEARS;
     }
 
+    /** Serves from the specified engine right away, without init and reloading; for tests. */
+    Servlet(Application application, Engine engine, UserAgents userAgents) {
+        this();
+        this.application = application;
+        this.engine = engine;
+        this.userAgents = userAgents;
+    }
+
     /** creates configuration. */
     @Override
     public void init(ServletConfig config) throws ServletException {
         World world;
         String str;
+        String policy;
 
         try {
             world = new World();
@@ -96,6 +120,21 @@ public class Servlet extends HttpServlet {
             str = config.getInitParameter("docroot");
             docroot = Application.file(world, str != null ? str : config.getServletContext().getRealPath(""));
             docroot.checkDirectory();
+            str = config.getInitParameter("reloadInterval");
+            reloadInterval = str != null ? Long.parseLong(str) : 1000;
+            warmUp = Boolean.parseBoolean(config.getInitParameter("warmUp"));
+            str = config.getInitParameter("warmUpThreads");
+            warmUpThreads = str != null ? Integer.parseInt(str) : Runtime.getRuntime().availableProcessors();
+            str = config.getInitParameter("warmUpMax");
+            warmUpMax = str != null ? Integer.parseInt(str) : Warmup.DEFAULT_MAX;
+            str = config.getInitParameter("warmUpLog");
+            warmUpLog = str != null ? Application.file(world, str) : null;
+            str = config.getInitParameter("warmUpLogPrefix");
+            warmUpLogPrefix = str != null ? str : "";
+            str = config.getInitParameter("userAgents");
+            policy = str != null ? str : UserAgents.DEFAULT_POLICY;
+            str = config.getInitParameter("userAgentsCacheSize");
+            userAgents = UserAgents.parse(policy, str != null ? Integer.parseInt(str) : UserAgents.DEFAULT_MAX);
             LOG.info("home: " + world.getHome());
             application = Application.load(world, config, docroot);
             LOG.info("docroot: " + docroot);
@@ -124,72 +163,127 @@ public class Servlet extends HttpServlet {
         webdav.setDefaultReadTimeout(HTTP_TIMEOUT);
     }
 
-    /** Creates engine from configuration and resolve. Sychronized ensures we initialize only once. */
-    private synchronized void lazyInit(HttpServletRequest request) throws IOException {
-        List<File> files;
+    /** Creates engine from configuration and resolve. Synchronized only until the first engine is installed. */
+    private void lazyInit(HttpServletRequest request) throws IOException {
+        if (engine == null) {
+            synchronized (this) {
+                if (engine == null) {
+                    init(request);
+                }
+            }
+        }
+    }
+
+    private void init(HttpServletRequest request) throws IOException {
         URL url;
-        long lastModified;
-        long now;
+        List<Node> reloadFiles;
+
+        url = new URL(request.getRequestURL().toString());
+        try {
+            // always use http, avoid https
+            localhost = application.resolver.getWorld().node(new URI("http", null, url.getHost(), url.getPort(), "", null, null));
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+        reloadFiles = createEngine();
+        LOG.info("started engine, initial url=" + url);
+        if (reloadFiles != null) {
+            reloader = new Reloader(application.getName(), reloadInterval, reloadFiles, System.currentTimeMillis()) {
+                @Override
+                protected boolean invalidate(List<Node> changed) {
+                    return engine.invalidate(changed);
+                }
+
+                @Override
+                protected List<Node> reload() throws IOException {
+                    application.resolver.reset();
+                    return createEngine();
+                }
+            };
+            reloader.start();
+        }
+    }
+
+    /**
+     * Creates a new engine and installs it; requests still running complete with the previous engine.
+     *
+     * @return reload files, null if life resolving is off
+     */
+    private List<Node> createEngine() throws IOException {
+        List<File> files;
         Resolver resolver;
-        Node localhost;
         FileNode file;
         Object[] tmp;
+        Engine result;
+        List<Node> reloadFiles;
 
         resolver = application.resolver;
-        if (engine != null && resolver.isLife()) {
-            for (Node node : reloadFiles) {
-                lastModified = node.getLastModified();
-                if (lastModified > loaded) {
-                    now = System.currentTimeMillis();
-                    if (lastModified > now) {
-                        // fail to avoid repeated re-init
-                        throw new IOException(node.getURI() + " has lastModifiedDate in the future: "
-                                + new Date(lastModified) + "(now: " + new Date(now) + ")");
-                    }
-                    LOG.info("reloading jasmin for application '" + application.getName() + "' - changed file: " + node);
-                    engine = null;
-                    resolver.reset();
-                }
+        tmp = application.createEngine(docroot, localhost);
+        result = (Engine) tmp[0];
+        for (Module module : result.repository.modules()) {
+            files = module.files();
+            if (files.size() > 1) {
+                LOG.warn("deprecated: module '" + module.getName() + "' contains more than 1 file: " + files);
             }
-        }
-        if (engine == null) {
-            url = new URL(request.getRequestURL().toString());
-            try {
-                // always use http, avoid https
-                localhost = resolver.getWorld().node(new URI("http", null, url.getHost(), url.getPort(), "", null, null));
-            } catch (URISyntaxException e) {
-                throw new IllegalStateException(e);
-            }
-            tmp = application.createEngine(docroot, localhost);
-            engine = (Engine) tmp[0];
-            LOG.info("started engine, initial url=" + url);
-            for (Module module : engine.repository.modules()) {
-                files = module.files();
-                if (files.size() > 1) {
-                    LOG.warn("deprecated: module '" + module.getName() + "' contains more than 1 file: " + files);
-                }
-                for (File f : files) {
-                    if (f.getNormal() instanceof WebdavNode) {
-                        LOG.warn("deprecated: module '" + module.getName() + "' uses base LOCALHOST: " + f.getNormal().getURI());
-                    }
+            for (File f : files) {
+                if (f.getNormal() instanceof WebdavNode) {
+                    LOG.warn("deprecated: module '" + module.getName() + "' uses base LOCALHOST: " + f.getNormal().getURI());
                 }
             }
-            if (resolver.isLife()) {
-                reloadFiles = (List<Node>) tmp[1];
-                file = resolver.getLiveXml();
-                if (file != null) {
-                    reloadFiles.add(file);
-                }
-                LOG.info("reload if one of these " + reloadFiles.size() + " files is modified: ");
-                for (Node node : reloadFiles) {
-                    LOG.info("  " + node.getURI());
-                }
-                loaded = System.currentTimeMillis();
+        }
+        if (resolver.isLife()) {
+            reloadFiles = (List<Node>) tmp[1];
+            file = resolver.getLiveXml();
+            if (file != null) {
+                reloadFiles.add(file);
             }
-            if (engine == null) {
-                throw new IllegalStateException();
+            LOG.info("reload if one of these " + reloadFiles.size() + " files is modified: ");
+            for (Node node : reloadFiles) {
+                LOG.info("  " + node.getURI());
             }
+        } else {
+            reloadFiles = null;
+        }
+        if (warmUp) {
+            warmUp(result);
+        }
+        engine = result;
+        return reloadFiles;
+    }
+
+    /**
+     * Warms up in the background. The engine is installed right away, also on reloads; paths not yet warm are
+     * built on demand, as without warm-up.
+     */
+    private void warmUp(Engine next) throws IOException {
+        List<String> paths;
+        Warmup started;
+
+        paths = new ArrayList<String>();
+        if (warmUpLog != null) {
+            // paths actually requested first, they survive the limit
+            paths.addAll(Warmup.paths(warmUpLog, warmUpLogPrefix, warmUpMax));
         }
+        paths.addAll(Warmup.paths(next.repository));
+        if (warmup != null) {
+            warmup.cancel();
+        }
+        started = new Warmup(next, paths, warmUpThreads, warmUpMax);
+        if (engine == null) {
+            initialWarmup = started;
+        }
+        warmup = started.start();
+    }
+
+    @Override
+    public void destroy() {
+        if (reloader != null) {
+            reloader.shutdown();
+        }
+        if (warmup != null) {
+            warmup.cancel();
+        }
+        super.destroy();
     }
 
     //--
@@ -209,13 +303,11 @@ public class Servlet extends HttpServlet {
         result = -1;
         try {
             path = request.getPathInfo();
-            if (path != null && path.startsWith("/get/")) {
+            if (path != null && path.startsWith(GET_PREFIX)) {
                 lazyInit(request);
-                path = path.substring(5);
-                idx = path.indexOf('/');
+                idx = path.indexOf('/', GET_PREFIX.length());
                 if (idx != -1) {
-                    path = path.substring(idx + 1);
-                    result = engine.getLastModified(path);
+                    result = engine.getLastModified(path.substring(idx + 1));
                 }
             }
         } catch (IOException e) {
@@ -231,7 +323,9 @@ public class Servlet extends HttpServlet {
             error(request, "getLastModified", e);
             throw new RuntimeException("unexpected throwable", e);
         }
-        LOG.debug("getLastModified(" + request.getPathInfo() + ") -> " + result);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("getLastModified(" + request.getPathInfo() + ") -> " + result);
+        }
         return result;
     }
 
@@ -263,7 +357,10 @@ public class Servlet extends HttpServlet {
         }
     }
 
+    private static final String GET_PREFIX = "/get/";
     private static final String MODULE_PREFIX = "/admin/module/";
+    /** maps a path to its content-addressed url */
+    private static final String URL_PREFIX = "/url/";
 
     private void doGetUnchecked(HttpServletRequest request, HttpServletResponse response) throws IOException {
         String path;
@@ -274,9 +371,19 @@ public class Servlet extends HttpServlet {
             return;
         }
         lazyInit(request);
-        LOG.debug("get " + path);
-        if (path.startsWith("/get/")) {
-            get(request, response, path.substring(5));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("get " + path);
+        }
+        if (path.startsWith(GET_PREFIX)) {
+            get(request, response, path, GET_PREFIX.length());
+            return;
+        }
+        if (path.equals("/manifest")) {
+            manifest(request, response);
+            return;
+        }
+        if (path.startsWith(URL_PREFIX)) {
+            url(request, response, path.substring(URL_PREFIX.length()));
             return;
         }
         if (path.equals("/admin/")) {
@@ -295,6 +402,14 @@ public class Servlet extends HttpServlet {
             contentCache(response);
             return;
         }
+        if (path.equals("/admin/fragmentCache")) {
+            fragmentCache(response);
+            return;
+        }
+        if (path.equals("/admin/planCache")) {
+            planCache(response);
+            return;
+        }
         if (path.startsWith(MODULE_PREFIX)) {
             module(request, response, path.substring(MODULE_PREFIX.length()));
             return;
@@ -307,6 +422,14 @@ public class Servlet extends HttpServlet {
             fileCheck(response);
             return;
         }
+        if (path.equals("/admin/userAgents")) {
+            text(response, userAgents.toString());
+            return;
+        }
+        if (path.equals("/admin/ready")) {
+            ready(response);
+            return;
+        }
         notFound(request, response);
     }
 
@@ -314,30 +437,43 @@ public class Servlet extends HttpServlet {
     private static final long SEVEN_DAYS = 1000L * 3600 * 24 * 7;
     private static final long TEN_YEARS = 1000L * 3600 * 24 * 365 * 10;
 
-    private void get(HttpServletRequest request, HttpServletResponse response, String path) throws IOException {
-        String version;
+    private static final String NO_EXPIRES = "no-expires";
+
+    /**
+     * Hits do not allocate beyond the path substring, the access log line and whatever the container does: versions
+     * are compared in place and headers are parsed without splitting. The access log line is written at info level;
+     * it costs a string and a log event per hit (see HitAllocationTest) and is what Warmup mines for paths.
+     *
+     * @param start of the version in pathInfo
+     */
+    private void get(HttpServletRequest request, HttpServletResponse response, String pathInfo, int start)
+            throws IOException {
+        String path;
         boolean expire;
         int idx;
         long started;
         long duration;
         int bytes;
-        boolean gzip;
+        String encoding;
+        Engine current;
+        String ifNoneMatch;
+        String etag;
         long date;
 
-        idx = path.indexOf('/');
+        idx = pathInfo.indexOf('/', start);
         if (idx == -1) {
             notFound(request, response);
             return;
         }
         started = System.currentTimeMillis();
-        version = path.substring(0, idx);
-        expire = !"no-expires".equals(version);
-        if (expire && !VM_STARTUP_STR.equals(version)) {
-            try {
-                synchronized (FMT) {
-                    date = FMT.parse(version).getTime();
-                }
-            } catch (ParseException e) {
+        if (isVersion(pathInfo, start, idx, Engine.HASHED)) {
+            hashed(request, response, pathInfo.substring(idx + 1), started);
+            return;
+        }
+        expire = !isVersion(pathInfo, start, idx, NO_EXPIRES);
+        if (expire && !isVersion(pathInfo, start, idx, VM_STARTUP_STR)) {
+            date = parseVersion(pathInfo, start, idx);
+            if (date == -1) {
                 notFound(request, response);
                 return;
             }
@@ -353,7 +489,7 @@ public class Servlet extends HttpServlet {
                 }
             }
         }
-        path = path.substring(idx + 1);
+        path = pathInfo.substring(idx + 1);
         if (application.resolver.isLife()) {
             // unknown headers are ok: see http://tools.ietf.org/html/rfc2616#section-7.1
             response.addHeader("Hi", "Sie werden bedient von Jasmin, vielen Dank fuer ihren Request!");
@@ -361,12 +497,198 @@ public class Servlet extends HttpServlet {
         checkCharset(request.getHeader("Accept-Charset"));
         if (expire && application.expires != null) {
             response.setDateHeader("Expires", started + 1000L * application.expires);
-            response.addHeader("Cache-Control", "max-age=" + application.expires);
+            response.addHeader("Cache-Control", application.maxAge);
         }
-        gzip = canGzip(request);
-        bytes = engine.process(path, response, gzip);
+        current = engine;
+        encoding = encoding(request, current.getEncodings());
+        ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            etag = current.getETag(path, encoding);
+            if (etag != null && matches(ifNoneMatch, etag)) {
+                response.setHeader("ETag", etag);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                if (LOG.isInfoEnabled()) {
+                    LOG.info(path + "|304|" + (System.currentTimeMillis() - started) + "|" + encoding + "|" + referer(request));
+                }
+                return;
+            }
+        }
+        bytes = current.process(path, response, encoding);
         duration = System.currentTimeMillis() - started;
-        LOG.info(path + "|" + bytes + "|" + duration + "|" + gzip + "|" + referer(request));
+        if (LOG.isInfoEnabled()) {
+            LOG.info(path + "|" + bytes + "|" + duration + "|" + encoding + "|" + referer(request));
+        }
+    }
+
+    private static boolean isVersion(String pathInfo, int start, int end, String version) {
+        return end - start == version.length() && pathInfo.regionMatches(start, version, 0, end - start);
+    }
+
+    /** Last version parsed; clients usually send the same one over and over again. */
+    private static class Version {
+        public final String str;
+        public final long date;
+
+        public Version(String str, long date) {
+            this.str = str;
+            this.date = date;
+        }
+    }
+
+    private volatile Version lastVersion;
+
+    /** @return -1 if the version cannot be parsed */
+    private long parseVersion(String pathInfo, int start, int end) {
+        Version last;
+        String str;
+        long date;
+
+        last = lastVersion;
+        if (last != null && isVersion(pathInfo, start, end, last.str)) {
+            return last.date;
+        }
+        str = pathInfo.substring(start, end);
+        try {
+            // SimpleDateFormat is not thread-safe; a copy is cheaper than a lock shared by all requests
+            date = ((SimpleDateFormat) FMT.clone()).parse(str).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+        lastVersion = new Version(str, date);
+        return date;
+    }
+
+    private static final long ONE_YEAR = 1000L * 3600 * 24 * 365;
+
+    /**
+     * Content-addressed requests: hash/path. The hash identifies the content, so it never changes and is cached for
+     * a year; the path is needed only to redirect requests for contents no longer available.
+     */
+    private void hashed(HttpServletRequest request, HttpServletResponse response, String hashPath, long started)
+            throws IOException {
+        int idx;
+        String hash;
+        String path;
+        Engine current;
+        Content content;
+        String encoding;
+        String etag;
+        String ifNoneMatch;
+        int bytes;
+
+        idx = hashPath.indexOf('/');
+        if (idx == -1) {
+            notFound(request, response);
+            return;
+        }
+        hash = hashPath.substring(0, idx);
+        path = hashPath.substring(idx + 1);
+        current = engine;
+        try {
+            content = current.lookup(hash, path);
+            if (content == null) {
+                // outdated - temporary redirect, the current hash changes when sources change
+                response.sendRedirect(getPrefix(request) + current.getHashedPath(path));
+                return;
+            }
+        } catch (IOException e) {
+            unavailable(request, response, e);
+            return;
+        } catch (IllegalArgumentException e) {
+            badRequest(request, response, e);
+            return;
+        }
+        encoding = encoding(request, current.getEncodings());
+        response.setDateHeader("Expires", started + ONE_YEAR);
+        response.addHeader("Cache-Control", "max-age=" + (ONE_YEAR / 1000) + ", immutable");
+        ifNoneMatch = request.getHeader("If-None-Match");
+        etag = content.etag(hash, encoding);
+        if (ifNoneMatch != null && matches(ifNoneMatch, etag)) {
+            response.setHeader("ETag", etag);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        bytes = current.write(content, hash, response, encoding);
+        if (LOG.isInfoEnabled()) {
+            LOG.info(hashPath + "|" + bytes + "|" + (System.currentTimeMillis() - started) + "|" + encoding + "|"
+                    + referer(request));
+        }
+    }
+
+    /**
+     * Hash, size and content-addressed url for every path parameter, in one round-trip. Missing contents are
+     * built in parallel.
+     */
+    private void manifest(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String[] paths;
+        String prefix;
+        Writer writer;
+        JSONWriter dest;
+
+        paths = request.getParameterValues("path");
+        prefix = getPrefix(request);
+        response.setContentType("application/json");
+        writer = response.getWriter();
+        dest = new JSONWriter(writer);
+        try {
+            dest.array();
+            if (paths != null) {
+                for (Engine.Entry entry : engine.manifest(Arrays.asList(paths))) {
+                    dest.object();
+                    dest.key("path");
+                    dest.value(entry.path);
+                    if (entry.hash != null) {
+                        dest.key("hash");
+                        dest.value(entry.hash);
+                        dest.key("size");
+                        dest.value(entry.size);
+                        dest.key("url");
+                        dest.value(prefix + entry.getHashedPath());
+                    } else {
+                        dest.key("error");
+                        dest.value(entry.error);
+                    }
+                    dest.endObject();
+                }
+            }
+            dest.endArray();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        writer.close();
+    }
+
+    private void url(HttpServletRequest request, HttpServletResponse response, String path) throws IOException {
+        String hashedPath;
+
+        try {
+            hashedPath = engine.getHashedPath(path);
+        } catch (IOException e) {
+            unavailable(request, response, e);
+            return;
+        } catch (IllegalArgumentException e) {
+            badRequest(request, response, e);
+            return;
+        }
+        text(response, getPrefix(request) + hashedPath);
+    }
+
+    /** The content for a path cannot be built, e.g. because a file is missing. */
+    private void unavailable(HttpServletRequest request, HttpServletResponse response, IOException e) throws IOException {
+        LOG.warn("not found: " + request.getPathInfo() + ": " + e.getMessage(), e);
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+
+    /** Malformed path or unknown module. */
+    private void badRequest(HttpServletRequest request, HttpServletResponse response, IllegalArgumentException e)
+            throws IOException {
+        LOG.warn("bad request: " + request.getPathInfo() + ": " + e.getMessage());
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+    }
+
+    /** @return prefix for get paths */
+    private static String getPrefix(HttpServletRequest request) {
+        return request.getContextPath() + request.getServletPath() + "/get/";
     }
 
     private static boolean sameTime(long left, long right) {
@@ -379,50 +701,179 @@ public class Servlet extends HttpServlet {
         return diff < FIVE_MINUTES;
     }
 
-    private static boolean canGzip(HttpServletRequest request) {
+    /** @return null for uncompressed */
+    private String encoding(HttpServletRequest request, List<String> available) {
         String accepted;
         String userAgent;
+        String result;
 
         accepted = request.getHeader("Accept-Encoding");
         if (accepted == null) {
-            return false;
+            return null;
         }
-        if (!contains(accepted, "gzip")) {
-            return false;
+        result = negotiate(accepted, available);
+        if (result == null) {
+            return null;
         }
         userAgent = request.getHeader("User-Agent");
-        if (userAgent == null || !whiteListed(userAgent)) {
-            LOG.info("user-agent not white-listed for gzip: " + userAgent);
-            return false;
+        if (userAgent == null || !userAgents.accepts(userAgent)) {
+            return null;
+        }
+        return result;
+    }
+
+    /** @return true if the If-None-Match header lists the specified entity tag, or is a wildcard */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        int start;
+        int end;
+        int comma;
+
+        start = 0;
+        while (start <= ifNoneMatch.length()) {
+            comma = ifNoneMatch.indexOf(',', start);
+            if (comma == -1) {
+                comma = ifNoneMatch.length();
+            }
+            start = skipSpace(ifNoneMatch, start, comma);
+            end = trimSpace(ifNoneMatch, start, comma);
+            if (end - start == 1 && ifNoneMatch.charAt(start) == '*') {
+                return true;
+            }
+            if (ifNoneMatch.startsWith("W/", start)) {
+                // weak comparison is fine for GET
+                start += 2;
+            }
+            if (end - start == etag.length() && ifNoneMatch.startsWith(etag, start)) {
+                return true;
+            }
+            start = comma + 1;
         }
-        return true;
+        return false;
     }
 
-    // see http://msdn.microsoft.com/en-us/repository/ms537503(VS.85).aspx
-    private static final Pattern MSIE = Pattern.compile("Mozilla/4.0 \\(compatible; MSIE (\\d+)\\..*");
+    /** @return index of the first non-space character in str[start, end[, end if there is none */
+    private static int skipSpace(String str, int start, int end) {
+        while (start < end && Character.isWhitespace(str.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
 
-    private static final Pattern MOZILLA = Pattern.compile("Mozilla/(\\d+)\\..*");
+    /** @return index after the last non-space character in str[start, end[, start if there is none */
+    private static int trimSpace(String str, int start, int end) {
+        while (end > start && Character.isWhitespace(str.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
 
-    public static boolean whiteListed(String str) {
-        if (atLeast(str, MSIE, 7)) {
-            return true;
+    /**
+     * See http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.3
+     *
+     * @param available encodings in order of preference, used to break ties between equal qualities
+     * @return the acceptable encoding with the highest quality, null if none is acceptable
+     */
+    public static String negotiate(String accepted, List<String> available) {
+        float wildcard;
+        float quality;
+        float bestQuality;
+        String best;
+        String encoding;
+
+        wildcard = quality(accepted, "*");
+        best = null;
+        bestQuality = 0;
+        for (int i = 0; i < available.size(); i++) {
+            encoding = available.get(i);
+            quality = quality(accepted, encoding);
+            if (quality < 0) {
+                quality = wildcard;
+            }
+            if (quality > bestQuality) {
+                best = encoding;
+                bestQuality = quality;
+            }
         }
-        if (atLeast(str, MOZILLA, 5)) {
-            return true;
+        return best;
+    }
+
+    /** @return -1 if the coding is not listed */
+    private static float quality(String accepted, String coding) {
+        int start;
+        int comma;
+        int semicolon;
+        int end;
+        int equals;
+
+        start = 0;
+        while (start <= accepted.length()) {
+            comma = accepted.indexOf(',', start);
+            if (comma == -1) {
+                comma = accepted.length();
+            }
+            semicolon = accepted.indexOf(';', start);
+            if (semicolon == -1 || semicolon > comma) {
+                semicolon = comma;
+            }
+            start = skipSpace(accepted, start, semicolon);
+            end = trimSpace(accepted, start, semicolon);
+            if (end - start == coding.length() && accepted.regionMatches(true, start, coding, 0, coding.length())) {
+                if (semicolon == comma) {
+                    return 1;
+                }
+                equals = accepted.indexOf('=', semicolon);
+                if (equals == -1 || equals > comma) {
+                    return 1;
+                }
+                start = skipSpace(accepted, semicolon + 1, equals);
+                end = trimSpace(accepted, start, equals);
+                if (end - start != 1 || accepted.charAt(start) != 'q') {
+                    return 1;
+                }
+                start = skipSpace(accepted, equals + 1, comma);
+                return parseQuality(accepted, start, trimSpace(accepted, start, comma));
+            }
+            start = comma + 1;
         }
-        return false;
+        return -1;
     }
 
-    private static boolean atLeast(String str, Pattern pattern, int num) {
-        String version;
-        Matcher matcher;
+    /** @return digits with an optional fraction, 0 if malformed */
+    private static float parseQuality(String str, int start, int end) {
+        float result;
+        float unit;
+        boolean fraction;
+        char c;
 
-        matcher = pattern.matcher(str);
-        if (matcher.matches()) {
-            version = matcher.group(1);
-            return Integer.parseInt(version) >= num;
+        if (start == end) {
+            return 0;
         }
-        return false;
+        result = 0;
+        unit = 1;
+        fraction = false;
+        for (int i = start; i < end; i++) {
+            c = str.charAt(i);
+            if (c == '.' && !fraction) {
+                fraction = true;
+            } else if (c >= '0' && c <= '9') {
+                if (fraction) {
+                    unit /= 10;
+                    result += unit * (c - '0');
+                } else {
+                    result = result * 10 + (c - '0');
+                }
+            } else {
+                return 0;
+            }
+        }
+        return result;
+    }
+
+    private static final UserAgents DEFAULT_USER_AGENTS = UserAgents.parse(UserAgents.DEFAULT_POLICY, 0);
+
+    /** @return true if the default policy white-lists this user agent; uncached */
+    public static boolean whiteListed(String str) {
+        return DEFAULT_USER_AGENTS.classify(str);
     }
 
     // see http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html
@@ -432,10 +883,10 @@ public class Servlet extends HttpServlet {
             return;
         }
         // I've seen both "utf-8" and "UTF-8" -> test case-insensitive
-        if (contains(accepts.toLowerCase(), "utf-8")) {
+        if (contains(accepts, "utf-8", true)) {
             return;
         }
-        if (contains(accepts, "*")) {
+        if (contains(accepts, "*", false)) {
             return;
         }
         throw new IOException("utf-8 is not accepted: " + accepts);
@@ -443,25 +894,40 @@ public class Servlet extends HttpServlet {
 
     // see http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html
     public static boolean contains(String list, String keyword) {
+        return contains(list, keyword, false);
+    }
+
+    private static boolean contains(String list, String keyword, boolean ignoreCase) {
         int idx;
         int colon;
-        String quality;
+        int start;
+        int end;
 
-        idx = list.indexOf(keyword);
+        idx = indexOf(list, keyword, ignoreCase);
         if (idx == -1) {
             return false;
         }
         idx += keyword.length();
-        colon = list.indexOf(",", idx);
+        colon = list.indexOf(',', idx);
         if (colon == -1) {
             colon = list.length();
         }
-        quality = list.substring(idx, colon);
-        idx = quality.indexOf('=');
-        if (idx == -1) {
+        idx = list.indexOf('=', idx);
+        if (idx == -1 || idx > colon) {
             return true;
         }
-        return !"0".equals(quality.substring(idx + 1).trim());
+        start = skipSpace(list, idx + 1, colon);
+        end = trimSpace(list, start, colon);
+        return end - start != 1 || list.charAt(start) != '0';
+    }
+
+    private static int indexOf(String str, String keyword, boolean ignoreCase) {
+        for (int i = 0, max = str.length() - keyword.length(); i <= max; i++) {
+            if (str.regionMatches(ignoreCase, i, keyword, 0, keyword.length())) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     private void main(HttpServletResponse response) throws IOException {
@@ -470,15 +936,23 @@ public class Servlet extends HttpServlet {
                 "<p>Hostname: " + HOSTNAME + "</p>",
                 "<p>Docroot: " + docroot.getAbsolute() + "</p>",
                 "<p>VM Startup: " + VM_STARTUP_STR + "</p>",
-                "<p>Other VM Startup: " + FMT.format(otherVmStartupDate) + "</p>",
-                "<p>Loaded: " + new Date(loaded) + "</p>",
+                "<p>Other VM Startup: " + ((SimpleDateFormat) FMT.clone()).format(otherVmStartupDate) + "</p>",
+                "<p>Loaded: " + new Date(reloader == null ? 0 : reloader.getLoaded()) + "</p>",
                 "<p>HashCache: " + engine.hashCache.getMaxSize() + "</p>",
                 "<p>ContentCache: " + engine.contentCache.getMaxSize() + "</p>",
+                "<p>FragmentCache: " + engine.fragmentCache.getMaxSize() + "</p>",
+                "<p>PlanCache: " + engine.repository.plans().getMaxSize() + "</p>",
+                "<p>Builds: " + engine.builds() + " (loaded: " + engine.loaded() + ", coalesced: " + engine.coalesced()
+                        + ", shared: " + engine.shared() + ")</p>",
                 application.resolver.isLife() ? "<a href='reload'>Reload Files</a>" : "(no reload)",
                 "<a href='repository'>Repository</a>",
                 "<a href='hashCache'>Hash Cache</a>",
                 "<a href='contentCache'>Content Cache</a>",
-                "<a href='check'>File Check</a>");
+                "<a href='fragmentCache'>Fragment Cache</a>",
+                "<a href='planCache'>Plan Cache</a>",
+                "<a href='check'>File Check</a>",
+                "<a href='userAgents'>User Agents</a>",
+                "<a href='ready'>Ready</a>");
     }
 
     private String getVersion() {
@@ -525,6 +999,14 @@ public class Servlet extends HttpServlet {
         text(response, engine.contentCache.toString());
     }
 
+    private void fragmentCache(HttpServletResponse response) throws IOException {
+        text(response, engine.fragmentCache.toString());
+    }
+
+    private void planCache(HttpServletResponse response) throws IOException {
+        text(response, engine.repository.plans().toString());
+    }
+
 
     private void module(HttpServletRequest request, HttpServletResponse response, String name) throws IOException {
         Writer writer;
@@ -587,8 +1069,14 @@ public class Servlet extends HttpServlet {
     }
 
     private void reload(HttpServletResponse response) throws IOException {
+        List<Node> reloadFiles;
         String[] lines;
 
+        if (reloader == null) {
+            text(response, "(no reload)");
+            return;
+        }
+        reloadFiles = reloader.getFiles();
         lines = new String[reloadFiles.size()];
         for (int i = 0; i < lines.length; i++) {
             lines[i] = reloadFiles.get(i).getURI().toString();
@@ -596,12 +1084,25 @@ public class Servlet extends HttpServlet {
         text(response, lines);
     }
 
+    /** For load balancers: 503 until the initial warm-up is done; reloads don't take the instance out */
+    private void ready(HttpServletResponse response) throws IOException {
+        Warmup current;
+
+        current = initialWarmup;
+        if (current != null && !current.isDone()) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            text(response, "warming up: " + current.remaining() + " of " + current.size() + " paths remaining");
+            return;
+        }
+        text(response, "ready");
+    }
+
     private void fileCheck(HttpServletResponse response) throws IOException {
         FileCheck check;
 
         check = new FileCheck();
-        check.minimize(true, engine.repository, application.resolver.getWorld());
-        text(response, check.toString());
+        check.minimize(true, engine.repository);
+        text(response, check.report(), check.exceptions().toString());
     }
 
     private void text(HttpServletResponse response, String... lines) throws IOException {
@@ -0,0 +1,191 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.main;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which user agents get compressed responses. A policy lists user agent prefixes with the minimum major
+ * version that handles compression properly, e.g. "Mozilla/:5"; a user agent qualifies if it starts with one of the
+ * prefixes, directly followed by a major version of at least this number and a dot. Classifications are cached by
+ * user agent string, so a request costs a single map lookup.
+ */
+public class UserAgents {
+    private static final Logger LOG = Logger.getLogger(UserAgents.class);
+
+    // see http://msdn.microsoft.com/en-us/repository/ms537503(VS.85).aspx
+    public static final String DEFAULT_POLICY = "Mozilla/4.0 (compatible; MSIE :7,Mozilla/:5";
+
+    public static final int DEFAULT_MAX = 10000;
+
+    /** @param policy comma-separated prefix:version entries; prefixes are taken literally, including trailing spaces */
+    public static UserAgents parse(String policy, int max) {
+        List<String> products;
+        List<Integer> versions;
+        int idx;
+
+        products = new ArrayList<String>();
+        versions = new ArrayList<Integer>();
+        for (String entry : policy.split(",")) {
+            entry = entry.trim();
+            if (entry.length() == 0) {
+                continue;
+            }
+            idx = entry.lastIndexOf(':');
+            if (idx <= 0) {
+                throw new IllegalArgumentException("prefix:version expected, got " + entry);
+            }
+            products.add(entry.substring(0, idx));
+            try {
+                versions.add(Integer.parseInt(entry.substring(idx + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid version in " + entry, e);
+            }
+        }
+        return new UserAgents(products, versions, max);
+    }
+
+    private final String[] products;
+    private final int[] versions;
+    /** maximum number of cached classifications */
+    private final int max;
+    private final ConcurrentMap<String, Boolean> cache;
+
+    /** striped, so requests in different threads don't contend for the same counter */
+    private final LongAdder hits;
+    private final LongAdder misses;
+    /** number of times the cache was full and had to be cleared */
+    private final LongAdder clears;
+
+    public UserAgents(List<String> products, List<Integer> versions, int max) {
+        if (products.size() != versions.size()) {
+            throw new IllegalArgumentException();
+        }
+        this.products = products.toArray(new String[products.size()]);
+        this.versions = new int[versions.size()];
+        for (int i = 0; i < this.versions.length; i++) {
+            this.versions[i] = versions.get(i);
+        }
+        this.max = max;
+        this.cache = new ConcurrentHashMap<String, Boolean>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.clears = new LongAdder();
+    }
+
+    /** @return true if compressed responses may be sent to this user agent */
+    public boolean accepts(String userAgent) {
+        Boolean result;
+
+        result = cache.get(userAgent);
+        if (result != null) {
+            hits.increment();
+            return result;
+        }
+        misses.increment();
+        result = classify(userAgent);
+        if (cache.size() >= max) {
+            // random user agents, e.g. from bots, must not grow the cache without bounds; the ones actually
+            // used come back quickly
+            cache.clear();
+            clears.increment();
+        }
+        cache.put(userAgent, result);
+        if (!result && LOG.isDebugEnabled()) {
+            // not info: bots send endless variations, and every clear makes all of them miss again
+            LOG.debug("user-agent not white-listed for compression: " + userAgent);
+        }
+        return result;
+    }
+
+    /** Uncached classification. */
+    public boolean classify(String userAgent) {
+        for (int i = 0; i < products.length; i++) {
+            if (atLeast(userAgent, products[i], versions[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return true if str starts with prefix, followed by a major version of at least num and a dot */
+    private static boolean atLeast(String str, String prefix, int num) {
+        int start;
+        int version;
+        int i;
+        char c;
+
+        if (!str.startsWith(prefix)) {
+            return false;
+        }
+        start = prefix.length();
+        version = 0;
+        for (i = start; i < str.length(); i++) {
+            c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            if (version < num) {
+                // larger numbers don't matter, and must not overflow
+                version = version * 10 + (c - '0');
+            }
+        }
+        return i > start && i < str.length() && str.charAt(i) == '.' && version >= num;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long clears() {
+        return clears.sum();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder;
+
+        builder = new StringBuilder();
+        builder.append("policy: ");
+        for (int i = 0; i < products.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(products[i]).append(':').append(versions[i]);
+        }
+        builder.append('\n');
+        builder.append("cached: ").append(cache.size()).append(" of ").append(max).append('\n');
+        builder.append("hits: ").append(hits.sum()).append('\n');
+        builder.append("misses: ").append(misses.sum()).append('\n');
+        builder.append("clears: ").append(clears.sum()).append('\n');
+        return builder.toString();
+    }
+}
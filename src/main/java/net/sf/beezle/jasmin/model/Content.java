@@ -16,14 +16,170 @@
  */
 package net.sf.beezle.jasmin.model;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Built output for a path, kept plain and in all configured encodings so serving never has to (de)compress.
+ * Bodies are heap arrays by default; off-heap contents hold direct or memory-mapped buffers instead.
+ */
 public class Content {
     public final String mimeType;
     public final long lastModified;
-    public final byte[] bytes;
+    /** uncompressed */
+    private final ByteBuffer plain;
+    /** maps encoding names to encoded bytes */
+    private final Map<String, ByteBuffer> encoded;
+    /** maps encoding names - or IDENTITY - to entity tags, computed on first use */
+    private final ConcurrentMap<String, String> etags;
+
+    public Content(String mimeType, long lastModified, byte[] bytes, Map<String, byte[]> encoded) {
+        this(mimeType, lastModified, ByteBuffer.wrap(bytes), wrap(encoded));
+    }
 
-    public Content(String mimeType, long lastModified, byte[] bytes) {
+    public Content(String mimeType, long lastModified, ByteBuffer plain, Map<String, ByteBuffer> encoded) {
         this.mimeType = mimeType;
         this.lastModified = lastModified;
-        this.bytes = bytes;
+        this.plain = plain;
+        this.encoded = Collections.unmodifiableMap(new LinkedHashMap<String, ByteBuffer>(encoded));
+        this.etags = new ConcurrentHashMap<String, String>(4);
+    }
+
+    private static Map<String, ByteBuffer> wrap(Map<String, byte[]> encoded) {
+        Map<String, ByteBuffer> result;
+
+        result = new LinkedHashMap<String, ByteBuffer>();
+        for (Map.Entry<String, byte[]> entry : encoded.entrySet()) {
+            result.put(entry.getKey(), ByteBuffer.wrap(entry.getValue()));
+        }
+        return result;
+    }
+
+    /** @return copy of this content with all bodies moved into direct buffers */
+    public Content toDirect() {
+        Map<String, ByteBuffer> result;
+
+        result = new LinkedHashMap<String, ByteBuffer>();
+        for (Map.Entry<String, ByteBuffer> entry : encoded.entrySet()) {
+            result.put(entry.getKey(), direct(entry.getValue()));
+        }
+        return new Content(mimeType, lastModified, direct(plain), result);
+    }
+
+    private static ByteBuffer direct(ByteBuffer src) {
+        ByteBuffer result;
+
+        result = ByteBuffer.allocateDirect(src.remaining());
+        result.put(src.duplicate());
+        result.flip();
+        return result;
+    }
+
+    /**
+     * @param encoding null for uncompressed bytes
+     * @return buffer of its own, positioned at the start of the body
+     */
+    public ByteBuffer get(String encoding) {
+        return body(encoding).duplicate();
+    }
+
+    /** @return shared buffer - never change its position */
+    private ByteBuffer body(String encoding) {
+        ByteBuffer result;
+
+        if (encoding == null) {
+            result = plain;
+        } else {
+            result = encoded.get(encoding);
+            if (result == null) {
+                throw new IllegalArgumentException("unknown encoding: " + encoding);
+            }
+        }
+        return result;
+    }
+
+    /** @param encoding null for uncompressed bytes */
+    public byte[] getBytes(String encoding) {
+        ByteBuffer buffer;
+        byte[] result;
+
+        buffer = get(encoding);
+        result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+
+    /** @param encoding null for uncompressed bytes */
+    public int length(String encoding) {
+        return body(encoding).remaining();
+    }
+
+    /**
+     * Heap bodies are written directly from their arrays, other bodies through a channel.
+     *
+     * @param encoding null for uncompressed bytes
+     * @return bytes written
+     */
+    public int writeTo(String encoding, OutputStream dest) throws IOException {
+        ByteBuffer buffer;
+        WritableByteChannel channel;
+        int result;
+
+        buffer = body(encoding);
+        result = buffer.remaining();
+        if (buffer.hasArray()) {
+            dest.write(buffer.array(), buffer.arrayOffset() + buffer.position(), result);
+        } else {
+            // channels advance the position
+            buffer = buffer.duplicate();
+            channel = Channels.newChannel(dest);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        return result;
+    }
+
+    private static final String IDENTITY = "identity";
+
+    /**
+     * The hash is not part of the content, but contents are cached by hash, so it's always the same.
+     *
+     * @param encoding null for uncompressed bytes
+     */
+    public String etag(String hash, String encoding) {
+        String key;
+        String result;
+
+        key = encoding == null ? IDENTITY : encoding;
+        result = etags.get(key);
+        if (result == null) {
+            result = Engine.etag(hash, encoding);
+            etags.put(key, result);
+        }
+        return result;
+    }
+
+    public Map<String, ByteBuffer> encoded() {
+        return encoded;
+    }
+
+    /** @return number of bytes held by this content */
+    public int size() {
+        int result;
+
+        result = plain.remaining();
+        for (ByteBuffer e : encoded.values()) {
+            result += e.remaining();
+        }
+        return result;
     }
 }
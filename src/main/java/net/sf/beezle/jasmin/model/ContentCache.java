@@ -18,6 +18,9 @@ package net.sf.beezle.jasmin.model;
 
 import net.sf.beezle.jasmin.cache.Cache;
 
+import java.nio.ByteBuffer;
+import java.util.Map;
+
 /** Maps hash to content. */
 public class ContentCache extends Cache<String, Content> {
     public ContentCache(int maxSize) {
@@ -26,11 +29,18 @@ public class ContentCache extends Cache<String, Content> {
 
     @Override
     public int valueSize(Content content) {
-        return content.bytes.length;
+        return content.size();
     }
 
     @Override
     public String valueToString(Content content) {
-        return content.bytes.length + " bytes";
+        StringBuilder builder;
+
+        builder = new StringBuilder();
+        builder.append(content.length(null)).append(" bytes");
+        for (Map.Entry<String, ByteBuffer> entry : content.encoded().entrySet()) {
+            builder.append(", ").append(entry.getValue().remaining()).append(' ').append(entry.getKey());
+        }
+        return builder.toString();
     }
 }
@@ -0,0 +1,473 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import org.apache.log4j.Logger;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Disk-backed second tier below the ContentCache, survives restarts and reloads. Contents are stored in
+ * content/<hash>; index/<hash of path> maps a path to a content hash, it's valid as long as the path still
+ * resolves to the same source files with the same last-modified date. A store written by Precompile also has a
+ * manifest mapping paths to hashes unconditionally. Corrupted files are deleted and treated as misses. Files are
+ * never removed while in use, the store grows until cleanup is called.
+ *
+ * A store written by Precompile is usually opened as a read-only archive, optionally as the fallback of a
+ * writable store that keeps contents built at runtime.
+ */
+public class ContentStore {
+    private static final Logger LOG = Logger.getLogger(ContentStore.class);
+    private static final String UTF_8 = "utf-8";
+    private static final int MAGIC = 0x4a534d31; // "JSM1"
+
+    public static final String MANIFEST = "manifest";
+    public static final String CONTENT = "content";
+
+    private final java.io.File contentDir;
+    private final java.io.File indexDir;
+    private final java.io.File manifestFile;
+    /** null if the store has no manifest */
+    private final Map<String, String> manifest;
+    private final boolean readOnly;
+    /** consulted for everything this store doesn't have; null for none */
+    private final ContentStore archive;
+
+    /** Opens a read-only store written by Precompile. */
+    public static ContentStore archive(java.io.File dir) throws IOException {
+        ContentStore result;
+
+        result = new ContentStore(dir, true, null);
+        if (!result.hasManifest()) {
+            throw new IOException(dir + ": archive without manifest - run Precompile first");
+        }
+        return result;
+    }
+
+    /** @return true if dir looks like the output of a previous Precompile run */
+    public static boolean isArchive(java.io.File dir) {
+        return new java.io.File(dir, MANIFEST).isFile() && new java.io.File(dir, CONTENT).isDirectory();
+    }
+
+    public ContentStore(java.io.File dir) throws IOException {
+        this(dir, null);
+    }
+
+    /** @param archive null for none */
+    public ContentStore(java.io.File dir, ContentStore archive) throws IOException {
+        this(dir, false, archive);
+    }
+
+    private ContentStore(java.io.File dir, boolean readOnly, ContentStore archive) throws IOException {
+        this.contentDir = new java.io.File(dir, CONTENT);
+        this.indexDir = new java.io.File(dir, "index");
+        this.manifestFile = new java.io.File(dir, MANIFEST);
+        if (!readOnly) {
+            mkdirs(contentDir);
+            mkdirs(indexDir);
+        }
+        this.manifest = manifestFile.isFile() ? readManifest(manifestFile) : null;
+        this.readOnly = readOnly;
+        this.archive = archive;
+    }
+
+    private static void mkdirs(java.io.File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create directory " + dir);
+        }
+    }
+
+    public java.io.File getDirectory() {
+        return contentDir.getParentFile();
+    }
+
+    /** @return true if save, index and writeManifest are not permitted */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    private void checkWritable() throws IOException {
+        if (readOnly) {
+            throw new IOException(getDirectory() + ": read-only store");
+        }
+    }
+
+    //-- path index
+
+    /**
+     * @param sources identifies the source files the path currently resolves to
+     * @return hash or null if the path is unknown or its sources changed
+     */
+    public String lookup(String path, String sources, long lastModified) throws IOException {
+        java.io.File file;
+        String[] lines;
+
+        file = indexFile(path);
+        lines = file.isFile() ? readIndex(file) : null;
+        if (lines == null || !path.equals(lines[0]) || !sources.equals(lines[1])
+                || lastModified != Long.parseLong(lines[2])) {
+            return archive == null ? null : archive.lookup(path, sources, lastModified);
+        }
+        if (!readOnly) {
+            // keeps the entry alive for cleanup
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return lines[3];
+    }
+
+    /** @return path, sources, last-modified and hash; null if the entry is corrupted */
+    private String[] readIndex(java.io.File file) throws IOException {
+        String[] lines;
+
+        lines = new String(read(file).array(), UTF_8).split("\n");
+        if (lines.length != 4) {
+            corrupted(file, "expected 4 lines, got " + lines.length);
+            return null;
+        }
+        try {
+            Long.parseLong(lines[2]);
+        } catch (NumberFormatException e) {
+            corrupted(file, "invalid last-modified: " + lines[2]);
+            return null;
+        }
+        return lines;
+    }
+
+    public void index(String path, String sources, long lastModified, String hash) throws IOException {
+        checkWritable();
+        write(indexFile(path), ByteBuffer.wrap((path + "\n" + sources + "\n" + lastModified + "\n" + hash).getBytes(UTF_8)));
+    }
+
+    private java.io.File indexFile(String path) throws IOException {
+        return new java.io.File(indexDir, Engine.hash(path.getBytes(UTF_8)));
+    }
+
+    //-- manifest
+
+    public boolean hasManifest() {
+        return manifest != null || (archive != null && archive.hasManifest());
+    }
+
+    /** @return hash or null if there's no manifest or the path is not listed */
+    public String manifest(String path) {
+        String result;
+
+        result = manifest == null ? null : manifest.get(path);
+        return result == null && archive != null ? archive.manifest(path) : result;
+    }
+
+    /** The manifest is read by the constructor, so it takes effect for stores created afterwards. */
+    public void writeManifest(Map<String, String> paths) throws IOException {
+        StringBuilder builder;
+
+        checkWritable();
+        builder = new StringBuilder();
+        for (Map.Entry<String, String> entry : paths.entrySet()) {
+            builder.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+        write(manifestFile, ByteBuffer.wrap(builder.toString().getBytes(UTF_8)));
+    }
+
+    private static Map<String, String> readManifest(java.io.File file) throws IOException {
+        Map<String, String> result;
+        int idx;
+
+        result = new HashMap<String, String>();
+        for (String line : new String(read(file).array(), UTF_8).split("\n")) {
+            if (line.length() > 0) {
+                idx = line.indexOf('\t');
+                if (idx == -1) {
+                    throw new IOException(file + ": corrupted manifest line: " + line);
+                }
+                result.put(line.substring(0, idx), line.substring(idx + 1));
+            }
+        }
+        return result;
+    }
+
+    //-- contents
+
+    /** @return null if there's no content for this hash */
+    public Content load(String hash) throws IOException {
+        java.io.File file;
+        Content result;
+
+        file = new java.io.File(contentDir, hash);
+        result = file.isFile() ? parse(file, read(file)) : null;
+        return result == null && archive != null ? archive.load(hash) : result;
+    }
+
+    /**
+     * Like load, but the bodies of the resulting content are slices of a read-only memory mapping of the file:
+     * they don't use heap, and the os shares them with its page cache.
+     *
+     * @return null if there's no content for this hash
+     */
+    public Content map(String hash) throws IOException {
+        java.io.File file;
+        RandomAccessFile src;
+        ByteBuffer buffer;
+        Content result;
+
+        file = new java.io.File(contentDir, hash);
+        if (!file.isFile()) {
+            return archive == null ? null : archive.map(hash);
+        }
+        src = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after closing the file, and even after the file is replaced
+            buffer = src.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, src.length());
+        } finally {
+            src.close();
+        }
+        result = parse(file, buffer);
+        return result == null && archive != null ? archive.map(hash) : result;
+    }
+
+    /** @return null if the file is corrupted */
+    private Content parse(java.io.File file, ByteBuffer buffer) throws IOException {
+        String mimeType;
+        long lastModified;
+        ByteBuffer plain;
+        int count;
+        Map<String, ByteBuffer> encoded;
+        String name;
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                corrupted(file, "not a content file");
+                return null;
+            }
+            mimeType = new String(getBytes(buffer), UTF_8);
+            lastModified = buffer.getLong();
+            plain = slice(buffer);
+            count = buffer.getInt();
+            encoded = new LinkedHashMap<String, ByteBuffer>();
+            for (int i = 0; i < count; i++) {
+                name = new String(getBytes(buffer), UTF_8);
+                encoded.put(name, slice(buffer));
+            }
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, IllegalArgumentException or NegativeArraySizeException for truncated files
+            corrupted(file, e.toString());
+            return null;
+        }
+        if (buffer.hasRemaining()) {
+            corrupted(file, buffer.remaining() + " trailing bytes");
+            return null;
+        }
+        return new Content(mimeType, lastModified, plain, encoded);
+    }
+
+    /** Deletes the file, so it's rewritten when the content is built next time. */
+    private void corrupted(java.io.File file, String message) {
+        if (readOnly) {
+            LOG.warn(file + ": corrupted: " + message);
+            return;
+        }
+        LOG.warn(file + ": corrupted, deleting it: " + message);
+        if (!file.delete()) {
+            LOG.warn("cannot delete " + file);
+        }
+    }
+
+    public void save(String hash, Content content) throws IOException {
+        List<ByteBuffer> buffers;
+        ByteBuffer header;
+
+        checkWritable();
+        buffers = new ArrayList<ByteBuffer>();
+        header = ByteBuffer.allocate(4);
+        header.putInt(MAGIC);
+        buffers.add((ByteBuffer) header.flip());
+        addBytes(buffers, content.mimeType.getBytes(UTF_8));
+        header = ByteBuffer.allocate(8);
+        header.putLong(content.lastModified);
+        buffers.add((ByteBuffer) header.flip());
+        addBytes(buffers, content.get(null));
+        header = ByteBuffer.allocate(4);
+        header.putInt(content.encoded().size());
+        buffers.add((ByteBuffer) header.flip());
+        for (Map.Entry<String, ByteBuffer> entry : content.encoded().entrySet()) {
+            addBytes(buffers, entry.getKey().getBytes(UTF_8));
+            addBytes(buffers, entry.getValue().duplicate());
+        }
+        write(new java.io.File(contentDir, hash), buffers.toArray(new ByteBuffer[buffers.size()]));
+    }
+
+    //-- cleanup
+
+    /**
+     * Deletes index entries not used for maxAge millis and contents no longer referenced by the index or the
+     * manifest. Contents younger than maxAge are kept because their index entry might not be written yet.
+     *
+     * @return number of files deleted; the archive is not touched
+     */
+    public int cleanup(long maxAge) throws IOException {
+        long limit;
+        Set<String> referenced;
+        String[] lines;
+        int count;
+
+        checkWritable();
+        limit = System.currentTimeMillis() - maxAge;
+        referenced = new HashSet<String>();
+        if (manifest != null) {
+            referenced.addAll(manifest.values());
+        }
+        count = 0;
+        for (java.io.File file : list(indexDir)) {
+            if (file.lastModified() < limit) {
+                count += delete(file);
+            } else if (!file.getName().endsWith(".tmp")) {
+                lines = readIndex(file);
+                if (lines != null) {
+                    referenced.add(lines[3]);
+                }
+            }
+        }
+        for (java.io.File file : list(contentDir)) {
+            if (file.lastModified() < limit && !referenced.contains(file.getName())) {
+                count += delete(file);
+            }
+        }
+        if (count > 0) {
+            LOG.info(getDirectory() + ": cleanup deleted " + count + " files");
+        }
+        return count;
+    }
+
+    private static java.io.File[] list(java.io.File dir) throws IOException {
+        java.io.File[] result;
+
+        result = dir.listFiles();
+        if (result == null) {
+            throw new IOException("cannot list " + dir);
+        }
+        return result;
+    }
+
+    private static int delete(java.io.File file) {
+        if (file.delete()) {
+            return 1;
+        }
+        // removed concurrently - or a permission problem
+        if (file.exists()) {
+            LOG.warn("cannot delete " + file);
+        }
+        return 0;
+    }
+
+    //--
+
+    private static void addBytes(List<ByteBuffer> buffers, byte[] bytes) {
+        addBytes(buffers, ByteBuffer.wrap(bytes));
+    }
+
+    private static void addBytes(List<ByteBuffer> buffers, ByteBuffer bytes) {
+        ByteBuffer length;
+
+        length = ByteBuffer.allocate(4);
+        length.putInt(bytes.remaining());
+        buffers.add((ByteBuffer) length.flip());
+        buffers.add(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        byte[] result;
+
+        result = new byte[buffer.getInt()];
+        buffer.get(result);
+        return result;
+    }
+
+    /** @return the next length-prefixed body, sharing content with buffer */
+    private static ByteBuffer slice(ByteBuffer buffer) {
+        int length;
+        ByteBuffer result;
+
+        length = buffer.getInt();
+        result = buffer.slice();
+        result.limit(length);
+        buffer.position(buffer.position() + length);
+        return result;
+    }
+
+    private static ByteBuffer read(java.io.File file) throws IOException {
+        FileInputStream src;
+        FileChannel channel;
+        ByteBuffer result;
+
+        src = new FileInputStream(file);
+        try {
+            channel = src.getChannel();
+            result = ByteBuffer.allocate((int) channel.size());
+            while (result.hasRemaining()) {
+                if (channel.read(result) == -1) {
+                    throw new IOException(file + ": unexpected end of file");
+                }
+            }
+        } finally {
+            src.close();
+        }
+        result.flip();
+        return result;
+    }
+
+    /** writes to a temp file first and renames it, so concurrent readers never see partial files */
+    private static void write(java.io.File file, ByteBuffer... buffers) throws IOException {
+        java.io.File tmp;
+        FileOutputStream dest;
+        FileChannel channel;
+        long remaining;
+
+        tmp = java.io.File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        dest = new FileOutputStream(tmp);
+        try {
+            channel = dest.getChannel();
+            remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        } finally {
+            dest.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // e.g. on Windows if the file exists
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("cannot rename " + tmp + " to " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.github.luben.zstd.Zstd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A Content-Encoding applied once when content is built. Brotli and zstd use bundled native code, they are
+ * optional dependencies and only loaded if configured.
+ */
+public abstract class Encoding {
+    public static final String GZIP = "gzip";
+    public static final String BROTLI = "br";
+    public static final String ZSTD = "zstd";
+
+    public static Encoding create(String name) {
+        if (GZIP.equals(name)) {
+            return new Gzip();
+        } else if (BROTLI.equals(name)) {
+            return new Brotli();
+        } else if (ZSTD.equals(name)) {
+            return new Zstandard();
+        } else {
+            throw new IllegalArgumentException("unknown encoding: " + name);
+        }
+    }
+
+    /** @param names comma-separated list of names, in order of preference */
+    public static List<Encoding> createAll(String names) {
+        List<Encoding> result;
+
+        result = new ArrayList<Encoding>();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.length() > 0) {
+                result.add(create(name));
+            }
+        }
+        return result;
+    }
+
+    //--
+
+    /** as used in Accept-Encoding and Content-Encoding headers */
+    public final String name;
+
+    protected Encoding(String name) {
+        this.name = name;
+    }
+
+    public abstract byte[] encode(byte[] bytes) throws IOException;
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    //--
+
+    public static class Gzip extends Encoding {
+        public Gzip() {
+            super(GZIP);
+        }
+
+        @Override
+        public byte[] encode(byte[] bytes) throws IOException {
+            ByteArrayOutputStream result;
+            OutputStream dest;
+
+            result = new ByteArrayOutputStream(bytes.length / 3);
+            dest = new GZIPOutputStream(result);
+            dest.write(bytes);
+            dest.close();
+            return result.toByteArray();
+        }
+    }
+
+    public static class Brotli extends Encoding {
+        private static final int QUALITY = 11;
+
+        public Brotli() {
+            super(BROTLI);
+            Brotli4jLoader.ensureAvailability();
+        }
+
+        @Override
+        public byte[] encode(byte[] bytes) throws IOException {
+            return com.aayushatharva.brotli4j.encoder.Encoder.compress(bytes,
+                    new com.aayushatharva.brotli4j.encoder.Encoder.Parameters().setQuality(QUALITY));
+        }
+    }
+
+    public static class Zstandard extends Encoding {
+        private static final int LEVEL = 19;
+
+        public Zstandard() {
+            super(ZSTD);
+        }
+
+        @Override
+        public byte[] encode(byte[] bytes) throws IOException {
+            return Zstd.compress(bytes, LEVEL);
+        }
+    }
+}
@@ -17,33 +17,154 @@
 package net.sf.beezle.jasmin.model;
 
 import net.sf.beezle.sushi.fs.GetLastModifiedException;
+import net.sf.beezle.sushi.fs.Node;
 import net.sf.beezle.sushi.graph.CyclicDependency;
-import net.sf.beezle.sushi.io.Buffer;
-import net.sf.beezle.sushi.util.Strings;
+import org.apache.log4j.Logger;
 
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Engine {
+    private static final Logger LOG = Logger.getLogger(Engine.class);
     private static final String UTF_8 = "utf-8";
 
     public final Repository repository;
     public final HashCache hashCache;
     public final ContentCache contentCache;
+    public final FragmentCache fragmentCache;
+
+    /** encodings built for every content, in order of preference */
+    private final List<Encoding> encodings;
+    /** names of the encodings, asked for by every request */
+    private final List<String> encodingNames;
+
+    /** computes content keys */
+    private final Hashing hashing;
+
+    /** null to disable */
+    private final ContentStore store;
+
+    /** keep cached contents in direct buffers or - with a store - in memory-mapped files instead of the heap */
+    private final boolean offHeap;
+
+    /** compiles the fragments of a content in parallel; null to compile them in the requesting thread */
+    private final ExecutorService compiler;
+    /**
+     * builds the contents of a manifest in parallel; null to build them in the requesting thread. Separate from the
+     * compiler because builds wait for their fragments - sharing threads could deadlock.
+     */
+    private final ExecutorService builder;
+
+    /** maps paths to the build currently running for them */
+    private final ConcurrentMap<String, FutureTask<Content>> running;
+
+    /**
+     * maps source nodes to the paths including them. Lists only paths in the hash cache - clients choose paths
+     * freely, so this must not grow beyond the cache.
+     */
+    private final ConcurrentMap<Node, Set<String>> dependents;
+    /** maps the paths listed in dependents to their source nodes, to remove them again */
+    private final ConcurrentMap<String, List<Node>> sourceNodes;
+    /** incremented by every invalidate call; builds that overlap with one do not map their path */
+    private final AtomicInteger invalidations;
+
+    /** number of contents actually built */
+    private final AtomicInteger builds;
+    /** number of contents loaded from the store instead of building them */
+    private final AtomicInteger loaded;
+    /** number of requests that waited for a build started by another thread instead of building themselves */
+    private final AtomicInteger coalesced;
+    /** number of builds that resulted in a content already cached for another path */
+    private final AtomicInteger shared;
 
     public Engine(Repository repository) {
+        this(repository, Encoding.createAll(Encoding.GZIP), null, false, 1);
+    }
+
+    /**
+     * @param store null to disable
+     * @param parallel max number of threads compiling the fragments of a single content
+     */
+    public Engine(Repository repository, List<Encoding> encodings, ContentStore store, boolean offHeap, int parallel) {
+        this(repository, encodings, store, offHeap, parallel, SHA);
+    }
+
+    /**
+     * @param store null to disable
+     * @param parallel max number of threads compiling the fragments of a single content
+     * @param hashing computes content keys; a store holds contents for both hashings side by side
+     */
+    public Engine(Repository repository, List<Encoding> encodings, ContentStore store, boolean offHeap, int parallel,
+                  Hashing hashing) {
         this.repository = repository;
-        this.hashCache = new HashCache(1000000);
+        this.encodings = encodings;
+        this.encodingNames = names(encodings);
+        this.hashing = hashing;
+        this.store = store;
+        this.offHeap = offHeap;
+        this.compiler = parallel > 1 ? createPool("jasmin-compiler-", parallel) : null;
+        this.builder = parallel > 1 ? createPool("jasmin-builder-", parallel) : null;
+        this.hashCache = new HashCache(1000000) {
+            @Override
+            protected void evicted(String path, String hash) {
+                if (probe(path) == null) {
+                    removeDependents(path);
+                }
+            }
+        };
         this.contentCache = new ContentCache(10000000);
+        this.fragmentCache = new FragmentCache(5000000);
+        this.running = new ConcurrentHashMap<String, FutureTask<Content>>();
+        this.dependents = new ConcurrentHashMap<Node, Set<String>>();
+        this.sourceNodes = new ConcurrentHashMap<String, List<Node>>();
+        this.invalidations = new AtomicInteger();
+        this.builds = new AtomicInteger();
+        this.loaded = new AtomicInteger();
+        this.coalesced = new AtomicInteger();
+        this.shared = new AtomicInteger();
+    }
+
+    private static ExecutorService createPool(final String name, int parallel) {
+        ThreadPoolExecutor result;
+
+        result = new ThreadPoolExecutor(parallel, parallel, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread;
+
+                        thread = new Thread(runnable, name + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // idle threads terminate, so an engine dropped by a reload does not leak them
+        result.allowCoreThreadTimeOut(true);
+        return result;
     }
 
     /**
@@ -51,11 +172,11 @@ public class Engine {
      * a) that's the commen case where output is cached. If output is to big for this, that whole caching doesn't work
      * b) I send sent proper error pages
      * c) I can return the number of bytes actually written
+     * @param encoding one of getEncodings(), or null to send uncompressed bytes
      * @return bytes written
      */
-    public int process(String path, HttpServletResponse response, boolean gzip) throws IOException {
+    public int process(String path, HttpServletResponse response, String encoding) throws IOException {
         Content content;
-        byte[] bytes;
         Writer writer;
 
         try {
@@ -70,13 +191,18 @@ public class Engine {
             writer.close();
             return -1;
         }
-        if (gzip) {
+        return write(content, hashCache.probe(path), response, encoding);
+    }
+
+    /**
+     * @param hash null if unknown
+     * @return bytes written
+     */
+    public int write(Content content, String hash, HttpServletResponse response, String encoding) throws IOException {
+        if (encoding != null) {
             // see "High Performance Websites", by Steve Souders
-            response.setHeader("Content-Encoding", "gzip");
+            response.setHeader("Content-Encoding", encoding);
             response.addHeader("Cache-Control", "private");
-            bytes = content.bytes;
-        } else {
-            bytes = unzip(content.bytes);
         }
         response.setBufferSize(0);
         response.setContentType(content.mimeType);
@@ -84,15 +210,17 @@ public class Engine {
         if (content.lastModified != -1) {
             response.setDateHeader("Last-Modified", content.lastModified);
         }
-        response.getOutputStream().write(bytes);
-        return bytes.length;
+        if (hash != null) {
+            response.setHeader("ETag", content.etag(hash, encoding));
+        }
+        return content.writeTo(encoding, response.getOutputStream());
     }
 
     public String process(String path) throws IOException {
         Content content;
 
         content = doProcess(path);
-        return new String(unzip(content.bytes), UTF_8);
+        return new String(content.getBytes(null), UTF_8);
     }
 
     /* @return -1 for when unknown */
@@ -107,36 +235,461 @@ public class Engine {
                 return content.lastModified;
             }
         }
-        return -1;
+        // cold cache: the plan is cheap, and a content's last modified date is the one of its sources
+        try {
+            return repository.resolve(Request.parse(path)).getLastModified();
+        } catch (GetLastModifiedException e) {
+            throw e;
+        } catch (IOException e) {
+            return -1;
+        } catch (CyclicDependency e) {
+            return -1;
+        } catch (IllegalArgumentException e) {
+            // malformed path, reported when processing it
+            return -1;
+        }
+    }
+
+    /**
+     * Strong validator of the specified representation. Does not build the content.
+     *
+     * @param encoding null for uncompressed bytes
+     * @return null if unknown
+     */
+    public String getETag(String path, String encoding) {
+        String hash;
+        Content content;
+
+        hash = getHash(path);
+        if (hash == null) {
+            return null;
+        }
+        content = contentCache.probe(hash);
+        return content == null ? etag(hash, encoding) : content.etag(hash, encoding);
+    }
+
+    public static String etag(String hash, String encoding) {
+        return "\"" + hash + "-" + (encoding == null ? "identity" : encoding) + "\"";
+    }
+
+    //-- content-addressed access
+
+    /** version prefix of content-addressed paths */
+    public static final String HASHED = "h";
+
+    /**
+     * Content-addressed variant of the specified path: h/<hash>/<path>. Builds the content if necessary.
+     */
+    public String getHashedPath(String path) throws IOException {
+        String hash;
+
+        hash = getHash(path);
+        if (hash == null) {
+            hash = getHash(path, doProcess(path));
+        }
+        return hashedPath(hash, path);
+    }
+
+    private static String hashedPath(String hash, String path) {
+        return HASHED + "/" + hash + "/" + path;
+    }
+
+    /** @param content as returned for the path */
+    private String getHash(String path, Content content) {
+        String hash;
+
+        hash = hashCache.probe(path);
+        if (hash == null) {
+            // invalidated or evicted meanwhile - hashing the plain bytes yields the same key as the build
+            hash = hashing.hash(content.getBytes(null));
+        }
+        return hash;
+    }
+
+    /** Hash, size and content-addressed path of a content. */
+    public static class Entry {
+        public final String path;
+        /** null if the content could not be built */
+        public final String hash;
+        /** uncompressed bytes; -1 if the content could not be built */
+        public final int size;
+        /** null if the content could be built */
+        public final String error;
+
+        public Entry(String path, String hash, int size, String error) {
+            this.path = path;
+            this.hash = hash;
+            this.size = size;
+            this.error = error;
+        }
+
+        /** @return null if the content could not be built */
+        public String getHashedPath() {
+            return hash == null ? null : hashedPath(hash, path);
+        }
+
+        @Override
+        public String toString() {
+            return hash == null ? path + ": " + error : getHashedPath() + " (" + size + " bytes)";
+        }
+    }
+
+    /**
+     * Builds missing contents in parallel. Errors are reported per path, they do not fail the whole manifest.
+     *
+     * @return entries in the order of the paths
+     */
+    public List<Entry> manifest(List<String> paths) throws InterruptedIOException {
+        List<Future<Entry>> futures;
+        List<Entry> result;
+        Throwable cause;
+
+        result = new ArrayList<Entry>(paths.size());
+        if (builder == null || paths.size() < 2) {
+            for (String path : paths) {
+                result.add(entry(path));
+            }
+            return result;
+        }
+        futures = new ArrayList<Future<Entry>>(paths.size());
+        for (final String path : paths) {
+            futures.add(builder.submit(new Callable<Entry>() {
+                @Override
+                public Entry call() {
+                    return entry(path);
+                }
+            }));
+        }
+        try {
+            for (Future<Entry> future : futures) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while building manifest");
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        } finally {
+            for (Future<Entry> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    private Entry entry(String path) {
+        Content content;
+
+        try {
+            content = doProcess(path);
+        } catch (IOException e) {
+            return new Entry(path, null, -1, e.getMessage());
+        } catch (RuntimeException e) {
+            // malformed path, unknown or duplicate modules, cyclic dependencies
+            return new Entry(path, null, -1, e.getMessage());
+        }
+        return new Entry(path, getHash(path, content), content.length(null), null);
+    }
+
+    /** @return content with the specified hash, null if it's neither cached nor stored */
+    public Content lookup(String hash) {
+        Content content;
+
+        if (!isHash(hash)) {
+            // never pass client input to the file system unchecked
+            return null;
+        }
+        content = contentCache.probe(hash);
+        if (content == null && store != null) {
+            try {
+                content = offHeap ? store.map(hash) : store.load(hash);
+            } catch (IOException e) {
+                LOG.warn(store.getDirectory() + ": cannot load " + hash + ": " + e.getMessage(), e);
+                return null;
+            }
+            if (content == null || !content.encoded().keySet().containsAll(getEncodings())) {
+                return null;
+            }
+            contentCache.add(hash, content, System.currentTimeMillis(), 0);
+        }
+        return content;
+    }
+
+    /**
+     * Like lookup(hash), but rebuilds the content for the path if it was evicted - otherwise, the path still maps
+     * to the hash, and clients would be redirected to the url they came from.
+     *
+     * @return null if the current content of the path has a different hash
+     */
+    public Content lookup(String hash, String path) throws IOException {
+        Content content;
+
+        content = lookup(hash);
+        if (content == null) {
+            content = doProcess(path);
+            if (!hash.equals(getHash(path, content))) {
+                return null;
+            }
+        }
+        return content;
+    }
+
+    private static boolean isHash(String str) {
+        char c;
+
+        if (str.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            c = str.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return null if the path is neither cached nor up-to-date in the store */
+    public String getHash(String path) {
+        String hash;
+        References references;
+
+        hash = hashCache.probe(path);
+        if (hash != null || store == null) {
+            return hash;
+        }
+        hash = store.manifest(path);
+        if (hash != null) {
+            return hash;
+        }
+        try {
+            references = repository.resolve(Request.parse(path));
+            return store.lookup(path, hashing.hash(references.toString().getBytes(UTF_8)), references.getLastModified());
+        } catch (IOException e) {
+            return null;
+        } catch (CyclicDependency e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** @return unmodifiable list of the encodings available for every content, in order of preference */
+    public List<String> getEncodings() {
+        return encodingNames;
+    }
+
+    private static List<String> names(List<Encoding> encodings) {
+        List<String> result;
+
+        result = new ArrayList<String>();
+        for (Encoding encoding : encodings) {
+            result.add(encoding.name);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Drops cached output after files have changed.
+     *
+     * @return false if one of the nodes affects the repository; the caller has to create a new engine in this case
+     */
+    public boolean invalidate(List<Node> changed) {
+        Set<String> paths;
+
+        for (Node node : changed) {
+            if (!repository.isContentFile(node)) {
+                return false;
+            }
+        }
+        invalidations.incrementAndGet();
+        for (Node node : changed) {
+            fragmentCache.invalidate(node);
+            paths = dependents.get(node);
+            if (paths != null) {
+                for (String path : paths) {
+                    hashCache.remove(path);
+                    removeDependents(path);
+                }
+            }
+        }
+        // contents are keyed by their hash, so they remain valid for paths not affected
+        return true;
+    }
+
+    private void addDependents(String path, References references) {
+        Set<String> paths;
+        Set<String> concurrent;
+
+        sourceNodes.put(path, references.nodes);
+        for (Node node : references.nodes) {
+            do {
+                paths = dependents.get(node);
+                if (paths == null) {
+                    paths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                    concurrent = dependents.putIfAbsent(node, paths);
+                    if (concurrent != null) {
+                        paths = concurrent;
+                    }
+                }
+                paths.add(path);
+                // retry if removeDependents dropped the set because it was empty
+            } while (dependents.get(node) != paths);
+        }
+    }
+
+    private void removeDependents(String path) {
+        List<Node> nodes;
+        Set<String> paths;
+
+        nodes = sourceNodes.remove(path);
+        if (nodes == null) {
+            return;
+        }
+        for (Node node : nodes) {
+            paths = dependents.get(node);
+            if (paths != null) {
+                paths.remove(path);
+                if (paths.isEmpty()) {
+                    dependents.remove(node, paths);
+                }
+            }
+        }
+    }
+
+    /** for tests */
+    int dependents() {
+        return dependents.size();
+    }
+
+    /**
+     * Maps path to hash unless files were invalidated since the build started. Dependents are recorded here only,
+     * so paths that fail to build or lose the race with invalidate leave nothing behind.
+     *
+     * @param references null if the content is trusted without resolving it
+     */
+    private void addHash(String path, String hash, int generation, long created, References references) {
+        if (invalidations.get() != generation) {
+            return;
+        }
+        if (references != null) {
+            // before the hash, so invalidate finds every path it can find in the cache
+            addDependents(path, references);
+        }
+        hashCache.add(path, hash, created, 0 /* too small for meaningful measures */);
+        if (invalidations.get() != generation) {
+            // invalidate ran concurrently and might have missed this entry
+            hashCache.remove(path);
+            removeDependents(path);
+        }
     }
 
     public void free() {
         hashCache.resize(0);
         contentCache.resize(0);
+        fragmentCache.resize(0);
+    }
+
+    public int builds() {
+        return builds.get();
+    }
+
+    public int loaded() {
+        return loaded.get();
+    }
+
+    public int coalesced() {
+        return coalesced.get();
+    }
+
+    public int shared() {
+        return shared.get();
     }
 
     //--
 
-    /** @return gzip compressed content */
-    private Content doProcess(String path) throws IOException {
+    /** package-private for tests */
+    Content doProcess(final String path) throws IOException {
+        String hash;
+        Content content;
+        FutureTask<Content> task;
+        FutureTask<Content> concurrent;
+        Throwable cause;
+
+        hash = hashCache.lookup(path);
+        if (hash != null) {
+            content = contentCache.lookup(hash);
+            if (content != null) {
+                return content;
+            }
+        }
+        task = new FutureTask<Content>(new Callable<Content>() {
+            @Override
+            public Content call() throws IOException {
+                return build(path);
+            }
+        });
+        concurrent = running.putIfAbsent(path, task);
+        if (concurrent == null) {
+            try {
+                task.run();
+            } finally {
+                running.remove(path, task);
+            }
+        } else {
+            coalesced.incrementAndGet();
+            task = concurrent;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(path + ": interrupted while waiting for concurrent build");
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    private Content build(String path) throws IOException {
         long startContent;
         long endContent;
         String hash;
         Content content;
+        Content existing;
         ByteArrayOutputStream result;
-        OutputStream dest;
         Writer writer;
         References references;
+        long lastModified;
+        String sources;
         byte[] bytes;
+        Map<String, byte[]> encoded;
+        int generation;
+        Hashing.Hasher hasher;
 
-        hash = hashCache.lookup(path);
-        if (hash != null) {
-            content = contentCache.lookup(hash);
+        startContent = System.currentTimeMillis();
+        generation = invalidations.get();
+        if (store != null && store.hasManifest()) {
+            content = archived(path, generation, startContent);
             if (content != null) {
                 return content;
             }
         }
-        startContent = System.currentTimeMillis();
         try {
             references = repository.resolve(Request.parse(path));
         } catch (CyclicDependency e) {
@@ -144,46 +697,141 @@ public class Engine {
         } catch (IOException e) {
             throw new IOException(path + ": " + e.getMessage(), e);
         }
+        lastModified = references.getLastModified();
+        sources = hashing.hash(references.toString().getBytes(UTF_8));
+        if (store != null) {
+            content = load(path, references, sources, lastModified, generation, startContent);
+            if (content != null) {
+                return content;
+            }
+        }
+        builds.incrementAndGet();
         result = new ByteArrayOutputStream(); // TODO: pool!
-        dest = new GZIPOutputStream(result);
-        writer = new OutputStreamWriter(dest);
-        references.writeTo(writer);
+        hasher = hashing.hasher();
+        writer = new OutputStreamWriter(new Hashing.HashingOutputStream(result, hasher));
+        references.writeTo(writer, fragmentCache, compiler);
         writer.close();
         bytes = result.toByteArray();
+        hash = hasher.finish();
+        encoded = new LinkedHashMap<String, byte[]>();
+        for (Encoding encoding : encodings) {
+            encoded.put(encoding.name, encoding.encode(bytes));
+        }
         endContent = System.currentTimeMillis();
-        hash = hash(bytes);
-        content = new Content(references.type.getMime(), references.getLastModified(), bytes);
-        hashCache.add(path, hash, endContent /* that's where hash computation starts */, 0 /* too small for meaningful measures */);
-        contentCache.add(hash, content, startContent, endContent - startContent);
+        addHash(path, hash, generation, endContent, references);
+        existing = contentCache.probe(hash);
+        if (existing != null) {
+            // different paths resolving to the same bytes, e.g. unknown variants falling back to lead: keep a single copy
+            shared.incrementAndGet();
+            content = existing;
+        } else {
+            content = new Content(references.type.getMime(), lastModified, bytes, encoded);
+            if (store != null && !store.isReadOnly()) {
+                save(path, hash, content);
+            }
+            if (offHeap) {
+                content = offHeap(hash, content);
+            }
+            contentCache.add(hash, content, startContent, endContent - startContent);
+        }
+        if (store != null && !store.isReadOnly()) {
+            index(path, sources, lastModified, hash);
+        }
         return content;
     }
 
-    private static final MessageDigest DIGEST;
+    private Content offHeap(String hash, Content content) {
+        Content mapped;
+
+        if (store != null) {
+            try {
+                mapped = store.map(hash);
+                if (mapped != null) {
+                    return mapped;
+                }
+            } catch (IOException e) {
+                LOG.warn(store.getDirectory() + ": cannot map " + hash + ": " + e.getMessage(), e);
+            }
+        }
+        return content.toDirect();
+    }
+
+    /** @return null if the store has no up-to-date content for this path */
+    private Content load(String path, References references, String sources, long lastModified, int generation,
+                         long startContent) {
+        String hash;
 
-    static {
         try {
-            DIGEST = MessageDigest.getInstance("SHA");
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException(e);
+            hash = store.lookup(path, sources, lastModified);
+        } catch (IOException e) {
+            LOG.warn(store.getDirectory() + ": cannot load " + path + ", rebuilding: " + e.getMessage(), e);
+            return null;
         }
+        return hash == null ? null : fetch(path, references, hash, generation, startContent);
     }
 
-    private static String hash(byte[] bytes) {
-        byte[] result;
+    /**
+     * Precompiled stores are trusted without resolving the path or checking source files, so production doesn't
+     * need to compile at all.
+     *
+     * @return null if the store's manifest does not list this path
+     */
+    private Content archived(String path, int generation, long startContent) {
+        String hash;
+
+        hash = store.manifest(path);
+        return hash == null ? null : fetch(path, null, hash, generation, startContent);
+    }
+
+    /**
+     * @param references null if the content is trusted without resolving it
+     * @return null if the store can't provide the content
+     */
+    private Content fetch(String path, References references, String hash, int generation, long startContent) {
+        Content content;
+        long endContent;
+
+        try {
+            content = contentCache.probe(hash);
+            if (content == null) {
+                content = offHeap ? store.map(hash) : store.load(hash);
+                if (content == null || !content.encoded().keySet().containsAll(getEncodings())) {
+                    return null;
+                }
+                endContent = System.currentTimeMillis();
+                contentCache.add(hash, content, startContent, endContent - startContent);
+            }
+        } catch (IOException e) {
+            LOG.warn(store.getDirectory() + ": cannot load " + path + ", rebuilding: " + e.getMessage(), e);
+            return null;
+        }
+        addHash(path, hash, generation, System.currentTimeMillis(), references);
+        loaded.incrementAndGet();
+        return content;
+    }
 
-        synchronized (DIGEST) {
-            result = DIGEST.digest(bytes);
+    private void save(String path, String hash, Content content) {
+        try {
+            store.save(hash, content);
+        } catch (IOException e) {
+            // not fatal, the content is served from memory
+            LOG.warn(store.getDirectory() + ": cannot save " + path + ": " + e.getMessage(), e);
         }
-        return Strings.toHex(result);
     }
 
-    private static byte[] unzip(byte[] bytes) {
-        // TODO: pool?
+    private void index(String path, String sources, long lastModified, String hash) {
         try {
-            return new Buffer().readBytes(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+            store.index(path, sources, lastModified, hash);
         } catch (IOException e) {
-            throw new IllegalStateException("unexpected IOException from ByteArrayInputStream: " + e.getMessage(), e);
+            LOG.warn(store.getDirectory() + ": cannot index " + path + ": " + e.getMessage(), e);
         }
     }
 
+    private static final Hashing SHA = new Hashing.Sha();
+
+    /** Independent of the engine's hashing, e.g. to name files */
+    static String hash(byte[] bytes) {
+        return SHA.hash(bytes);
+    }
+
 }
@@ -0,0 +1,91 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import net.sf.beezle.jasmin.cache.Cache;
+import net.sf.beezle.sushi.fs.Node;
+import net.sf.beezle.sushi.fs.webdav.WebdavNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps a file to its compiled output, i.e. minimized js or generated css. Keys include the last modified date,
+ * so changed files get recompiled while unchanged files are shared by all references including them.
+ */
+public class FragmentCache extends Cache<String, String> {
+    /** maps node uris to the keys added for them; may still list keys already evicted */
+    private final ConcurrentMap<URI, Set<String>> keys;
+
+    public FragmentCache(int maxSize) {
+        super(maxSize);
+        this.keys = new ConcurrentHashMap<URI, Set<String>>();
+    }
+
+    public void add(Node node, String key, String fragment, long created, long duration) {
+        URI uri;
+        Set<String> set;
+        Set<String> concurrent;
+
+        uri = node.getURI();
+        set = keys.get(uri);
+        if (set == null) {
+            set = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            concurrent = keys.putIfAbsent(uri, set);
+            if (concurrent != null) {
+                set = concurrent;
+            }
+        }
+        set.add(key);
+        add(key, fragment, created, duration);
+    }
+
+    /** Removes all fragments of the specified node, regardless of their last modified date. */
+    public void invalidate(Node node) {
+        Set<String> set;
+
+        set = keys.remove(node.getURI());
+        if (set != null) {
+            for (String key : set) {
+                remove(key);
+            }
+        }
+    }
+
+    /** @return null if the node's output must not be cached */
+    public String key(MimeType type, boolean minimize, Node node) throws IOException {
+        if (node instanceof WebdavNode) {
+            // dynamic content
+            return null;
+        }
+        return type + (minimize ? "-min:" : ":") + node.getLastModified() + ":" + node.getURI();
+    }
+
+    @Override
+    public int valueSize(String fragment) {
+        return fragment.length();
+    }
+
+    @Override
+    public String valueToString(String fragment) {
+        return fragment.length() + " chars";
+    }
+}
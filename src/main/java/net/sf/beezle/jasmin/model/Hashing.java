@@ -0,0 +1,261 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import net.sf.beezle.sushi.util.Strings;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Computes the keys of contents. Hashers are cheap to create and not thread-safe, use one per content. */
+public abstract class Hashing {
+    public static final String SHA = "sha";
+    public static final String MURMUR3 = "murmur3";
+
+    public static Hashing create(String name) {
+        if (SHA.equals(name)) {
+            return new Sha();
+        } else if (MURMUR3.equals(name)) {
+            return new Murmur3();
+        } else {
+            throw new IllegalArgumentException("unknown hashing: " + name);
+        }
+    }
+
+    //--
+
+    public final String name;
+
+    protected Hashing(String name) {
+        this.name = name;
+    }
+
+    public abstract Hasher hasher();
+
+    public String hash(byte[] bytes) {
+        Hasher hasher;
+
+        hasher = hasher();
+        hasher.update(bytes, 0, bytes.length);
+        return hasher.finish();
+    }
+
+    public abstract static class Hasher {
+        public abstract void update(byte[] bytes, int ofs, int len);
+
+        /** @return hex string */
+        public abstract String finish();
+    }
+
+    /** Passes bytes to the underlying stream and the hasher, so hashing needs no second pass over the bytes */
+    public static class HashingOutputStream extends FilterOutputStream {
+        private final Hasher hasher;
+
+        public HashingOutputStream(OutputStream out, Hasher hasher) {
+            super(out);
+            this.hasher = hasher;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int ofs, int len) throws IOException {
+            hasher.update(bytes, ofs, len);
+            out.write(bytes, ofs, len);
+        }
+    }
+
+    //--
+
+    /** Sha-1; digests are cloned from a prototype, there's no shared state to lock. */
+    public static class Sha extends Hashing {
+        private final MessageDigest prototype;
+
+        public Sha() {
+            super(SHA);
+            try {
+                prototype = MessageDigest.getInstance("SHA");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Hasher hasher() {
+            final MessageDigest digest;
+
+            try {
+                digest = (MessageDigest) prototype.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new Hasher() {
+                @Override
+                public void update(byte[] bytes, int ofs, int len) {
+                    digest.update(bytes, ofs, len);
+                }
+
+                @Override
+                public String finish() {
+                    return Strings.toHex(digest.digest());
+                }
+            };
+        }
+    }
+
+    /** MurmurHash3, x64 128 bit variant, seed 0: not cryptographic, but fast and good enough for cache keys. */
+    public static class Murmur3 extends Hashing {
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        public Murmur3() {
+            super(MURMUR3);
+        }
+
+        @Override
+        public Hasher hasher() {
+            return new Hasher() {
+                private long h1 = 0;
+                private long h2 = 0;
+                private final byte[] tail = new byte[16];
+                private int tailLength = 0;
+                private long length = 0;
+
+                @Override
+                public void update(byte[] bytes, int ofs, int len) {
+                    int count;
+
+                    length += len;
+                    if (tailLength > 0) {
+                        count = Math.min(16 - tailLength, len);
+                        System.arraycopy(bytes, ofs, tail, tailLength, count);
+                        tailLength += count;
+                        ofs += count;
+                        len -= count;
+                        if (tailLength < 16) {
+                            return;
+                        }
+                        block(tail, 0);
+                        tailLength = 0;
+                    }
+                    while (len >= 16) {
+                        block(bytes, ofs);
+                        ofs += 16;
+                        len -= 16;
+                    }
+                    System.arraycopy(bytes, ofs, tail, 0, len);
+                    tailLength = len;
+                }
+
+                private void block(byte[] bytes, int ofs) {
+                    long k1;
+                    long k2;
+
+                    k1 = getLong(bytes, ofs);
+                    k2 = getLong(bytes, ofs + 8);
+                    h1 ^= mixK1(k1);
+                    h1 = Long.rotateLeft(h1, 27);
+                    h1 += h2;
+                    h1 = h1 * 5 + 0x52dce729;
+                    h2 ^= mixK2(k2);
+                    h2 = Long.rotateLeft(h2, 31);
+                    h2 += h1;
+                    h2 = h2 * 5 + 0x38495ab5;
+                }
+
+                @Override
+                public String finish() {
+                    long k1;
+                    long k2;
+                    byte[] result;
+
+                    k1 = 0;
+                    k2 = 0;
+                    for (int i = tailLength - 1; i >= 8; i--) {
+                        k2 ^= (tail[i] & 0xffL) << ((i - 8) * 8);
+                    }
+                    for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+                        k1 ^= (tail[i] & 0xffL) << (i * 8);
+                    }
+                    if (tailLength > 8) {
+                        h2 ^= mixK2(k2);
+                    }
+                    if (tailLength > 0) {
+                        h1 ^= mixK1(k1);
+                    }
+                    h1 ^= length;
+                    h2 ^= length;
+                    h1 += h2;
+                    h2 += h1;
+                    h1 = fmix(h1);
+                    h2 = fmix(h2);
+                    h1 += h2;
+                    h2 += h1;
+                    result = new byte[16];
+                    putLong(h1, result, 0);
+                    putLong(h2, result, 8);
+                    return Strings.toHex(result);
+                }
+            };
+        }
+
+        private static long mixK1(long k1) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            return k1 * C2;
+        }
+
+        private static long mixK2(long k2) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            return k2 * C1;
+        }
+
+        private static long fmix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+
+        /** little endian */
+        private static long getLong(byte[] bytes, int ofs) {
+            long result;
+
+            result = 0;
+            for (int i = 7; i >= 0; i--) {
+                result = (result << 8) | (bytes[ofs + i] & 0xffL);
+            }
+            return result;
+        }
+
+        /** little endian */
+        private static void putLong(long value, byte[] bytes, int ofs) {
+            for (int i = 0; i < 8; i++) {
+                bytes[ofs + i] = (byte) (value >>> (i * 8));
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import net.sf.beezle.mork.mapping.ExceptionErrorHandler;
+import net.sf.beezle.mork.mapping.Mapper;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of mappers. Creating a mapper loads its grammar tables, that's expensive; running it is not.
+ * A mapper is used by one thread at a time: borrow it, run it, release it.
+ */
+public class MapperPool {
+    public static final MapperPool SSASS = new MapperPool("net.sf.beezle.ssass.Mapper", Runtime.getRuntime().availableProcessors());
+
+    private final String name;
+    private final BlockingQueue<Mapper> idle;
+    private final AtomicInteger created;
+
+    /** @param max number of idle mappers kept; more mappers are created if needed, but not kept */
+    public MapperPool(String name, int max) {
+        this.name = name;
+        this.idle = new ArrayBlockingQueue<Mapper>(max);
+        this.created = new AtomicInteger();
+    }
+
+    public Mapper borrow() {
+        Mapper mapper;
+
+        mapper = idle.poll();
+        if (mapper == null) {
+            created.incrementAndGet();
+            mapper = new Mapper(name, new ExceptionErrorHandler());
+        }
+        return mapper;
+    }
+
+    public void release(Mapper mapper) {
+        idle.offer(mapper);
+    }
+
+    /** @return number of mappers created so far */
+    public int created() {
+        return created.get();
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import net.sf.beezle.jasmin.cache.Cache;
+
+/**
+ * Maps requests to their resolved references, i.e. the ordered list of files to include. Resolving is a pure
+ * function of the request and the linked repository, so entries never get stale; a reload creates a new
+ * repository with an empty cache.
+ */
+public class PlanCache extends Cache<Request, References> {
+    public PlanCache(int maxSize) {
+        super(maxSize);
+    }
+
+    /** plus one, so plans without files - e.g. css of a js-only module - are counted and evicted, too */
+    @Override
+    public int valueSize(References references) {
+        return 1 + references.nodes.size();
+    }
+
+    @Override
+    public String valueToString(References references) {
+        return references.nodes.size() + " files";
+    }
+}
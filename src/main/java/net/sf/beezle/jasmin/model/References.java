@@ -17,7 +17,6 @@
 package net.sf.beezle.jasmin.model;
 
 import com.yahoo.platform.yui.compressor.JavaScriptCompressor;
-import net.sf.beezle.mork.mapping.ExceptionErrorHandler;
 import net.sf.beezle.mork.mapping.Mapper;
 import net.sf.beezle.mork.misc.GenericException;
 import net.sf.beezle.ssass.scss.Output;
@@ -32,12 +31,17 @@ import org.mozilla.javascript.tools.ToolErrorReporter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -75,70 +79,153 @@ public class References {
         nodes.add(node);
     }
 
-    /** core method */
     public void writeTo(Writer writer) throws IOException {
-        ByteArrayOutputStream messages;
-        Reader reader;
-        String srcName;
-        Object[] results;
-        Output output;
-        Mapper mapper;
+        writeTo(writer, null, null);
+    }
 
-        if (type == MimeType.CSS) {
-            output = new Output(writer, overallMinimize);
-            // TODO: expensive
-            mapper = new Mapper("net.sf.beezle.ssass.Mapper", new ExceptionErrorHandler());
-        } else {
-            output = null;
-            mapper = null;
+    /**
+     * core method
+     *
+     * @param cache to reuse fragments already computed for other references; null to always compute
+     * @param executor to compute fragments in parallel; null to compute them in the calling thread. Output is
+     *                 the same in both cases.
+     */
+    public void writeTo(Writer writer, FragmentCache cache, ExecutorService executor) throws IOException {
+        List<Future<String>> fragments;
+
+        fragments = executor == null || nodes.size() < 2 ? null : submit(executor, cache);
+        try {
+            for (int i = 0; i < nodes.size(); i++) {
+                if (i > 0) {
+                    writer.write(LF);
+                }
+                if (!overallMinimize) {
+                    writer.write(type.comment(location(nodes.get(i))));
+                }
+                writer.write(fragments == null ? fragment(i, cache) : get(fragments.get(i)));
+            }
+        } finally {
+            if (fragments != null) {
+                for (Future<String> fragment : fragments) {
+                    fragment.cancel(true);
+                }
+            }
         }
+    }
+
+    private List<Future<String>> submit(ExecutorService executor, final FragmentCache cache) {
+        List<Future<String>> result;
+
+        result = new ArrayList<Future<String>>();
         for (int i = 0; i < nodes.size(); i++) {
-            boolean minimize;
-            Node node;
+            final int idx = i;
+
+            result.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return fragment(idx, cache);
+                }
+            }));
+        }
+        return result;
+    }
 
-            minimize = minimizes.get(i);
-            node = nodes.get(i);
-            if (i > 0) {
-                writer.write(LF);
+    private static String get(Future<String> fragment) throws IOException {
+        Throwable cause;
+
+        try {
+            return fragment.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for fragment");
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException(cause);
             }
-            if (!overallMinimize) {
-                writer.write(type.comment(location(node)));
+        }
+    }
+
+    private String fragment(int i, FragmentCache cache) throws IOException {
+        boolean minimize;
+        Node node;
+        String key;
+        long started;
+        String result;
+
+        minimize = minimizes.get(i);
+        node = nodes.get(i);
+        if (type == MimeType.JS && !minimize) {
+            // nothing to compute
+            return node.readString();
+        }
+        key = cache == null ? null : cache.key(type, type == MimeType.CSS ? overallMinimize : minimize, node);
+        if (key != null) {
+            result = cache.lookup(key);
+            if (result != null) {
+                return result;
             }
-            switch (type) {
-                case JS :
-                    if (minimize) {
-                        reader = node.createReader();
-                        srcName = node.toString();
-                        messages = new ByteArrayOutputStream();
-                        try {
-                            new JavaScriptCompressor(reader, new ToolErrorReporter(true, new PrintStream(messages))).compress(
-                                    writer, MimeType.LINE_BREAK, false, false, true, true);
-                        } catch (EvaluatorException e) {
-                            throw new IOException(srcName + ":" + e.getMessage() + "\n" + messages.toString("utf-8"), e);
-                        } catch (IOException e) {
-                            throw new IOException(srcName + ": compression failed: " + e.getMessage(), e);
-                        }
-                        reader.close();
-                    } else {
-                        writer.write(node.readString());
-                    }
-                    break;
-                case CSS :
-                    // TODO: error messages
+        }
+        started = System.currentTimeMillis();
+        result = compute(node);
+        if (key != null) {
+            cache.add(node, key, result, started, System.currentTimeMillis() - started);
+        }
+        return result;
+    }
+
+    /** @return minimized js or generated css */
+    private String compute(Node node) throws IOException {
+        StringWriter writer;
+        ByteArrayOutputStream messages;
+        Reader reader;
+        String srcName;
+        Mapper mapper;
+        Object[] results;
+
+        writer = new StringWriter();
+        switch (type) {
+            case JS :
+                reader = node.createReader();
+                srcName = node.toString();
+                messages = new ByteArrayOutputStream();
+                try {
+                    new JavaScriptCompressor(reader, new ToolErrorReporter(true, new PrintStream(messages))).compress(
+                            writer, MimeType.LINE_BREAK, false, false, true, true);
+                } catch (EvaluatorException e) {
+                    throw new IOException(srcName + ":" + e.getMessage() + "\n" + messages.toString("utf-8"), e);
+                } catch (IOException e) {
+                    throw new IOException(srcName + ": compression failed: " + e.getMessage(), e);
+                }
+                reader.close();
+                break;
+            case CSS :
+                // TODO: error messages
+                mapper = MapperPool.SSASS.borrow();
+                try {
                     results = mapper.run(node);
-                    if (results == null) {
-                        throw new IOException(node.toString() + ": css/sass error");
-                    }
-                    try {
-                        ((Stylesheet) results[0]).toCss(output);
-                    } catch (GenericException e) {
-                        throw new IOException(node.toString() + ": css generation failed: " + e.getMessage(), e);
-                    }
-                    break;
-                default :
-                    throw new IllegalArgumentException(type.toString());
-            }
+                } finally {
+                    MapperPool.SSASS.release(mapper);
+                }
+                if (results == null) {
+                    throw new IOException(node.toString() + ": css/sass error");
+                }
+                try {
+                    ((Stylesheet) results[0]).toCss(new Output(writer, overallMinimize));
+                } catch (GenericException e) {
+                    throw new IOException(node.toString() + ": css generation failed: " + e.getMessage(), e);
+                }
+                break;
+            default :
+                throw new IllegalArgumentException(type.toString());
         }
+        return writer.toString();
     }
 
     public String readString() throws IOException {
@@ -35,11 +35,16 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /** A list of modules. Plus load functionality (including linking and reload file handling */
 @net.sf.beezle.sushi.metadata.annotation.Type
@@ -66,10 +71,27 @@ public class Repository {
 
     private final List<Module> modules;
 
+    /** maps names to modules; becomes unmodifiable when link() is called */
+    private Map<String, Module> index;
+
+    /** resolved requests */
+    private final PlanCache plans;
+
+    /** dependencies before dependents, otherwise in module order; computed by link(); null if dependencies are cyclic */
+    private List<Module> order;
+    /** index into order for every module; null if order is null */
+    private Map<Module, Integer> positions;
+    /** transitive dependencies (including the module itself) as bits into order, computed on demand */
+    private AtomicReferenceArray<BitSet> closures;
+
     /** using during loading, until() link is called */
     private Map<Module, List<String>> notLinked;
     /** using during loading, until() link is called */
     private List<Node> reloadFiles;
+    /** using during loading, until() link is called; reload files that affect loading or linking */
+    private Set<Node> linkFiles;
+    /** reload files that merely provide content; becomes unmodifiable when link() is called */
+    private Set<Node> contentFiles;
 
     public Repository() {
         this(new Attributes() {
@@ -86,21 +108,29 @@ public class Repository {
         }
         this.attributes = attributes;
         this.modules = new ArrayList<Module>();
+        this.index = new HashMap<String, Module>();
+        this.plans = new PlanCache(100000);
         this.notLinked = new HashMap<Module, List<String>>();
         this.reloadFiles = new ArrayList<Node>();
+        this.linkFiles = new HashSet<Node>();
+        this.contentFiles = new HashSet<Node>();
     }
 
     public List<Module> modules() {
         return modules;
     }
 
+    /** @return true if changes to the specified node don't affect modules or dependencies */
+    public boolean isContentFile(Node node) {
+        return contentFiles.contains(node);
+    }
+
+    public PlanCache plans() {
+        return plans;
+    }
+
     public Module lookup(String name) {
-        for (Module module : modules) {
-            if (name.equals(module.getName())) {
-                return module;
-            }
-        }
-        return null;
+        return index.get(name);
     }
 
     /** @return never null */
@@ -118,9 +148,10 @@ public class Repository {
         String name;
 
         name = module.getName();
-        if (lookup(name) != null) {
+        if (index.containsKey(name)) {
             throw new IllegalArgumentException("duplicate module: " + name);
         }
+        index.put(name, module);
         modules.add(module);
     }
 
@@ -174,7 +205,21 @@ public class Repository {
 
     //--
 
+    /** @return references shared with other callers; do not modify */
     public References resolve(Request request) throws IOException, CyclicDependency {
+        References references;
+        long started;
+
+        references = plans.lookup(request);
+        if (references == null) {
+            started = System.currentTimeMillis();
+            references = doResolve(request);
+            plans.add(request, references, started, System.currentTimeMillis() - started);
+        }
+        return references;
+    }
+
+    private References doResolve(Request request) throws IOException, CyclicDependency {
         List<Module> includes;
         List<Module> excludes;
         References references;
@@ -194,8 +239,11 @@ public class Repository {
                 includes.add(get(name));
             }
         }
-        moduleList = sequence(includes);
-        moduleList.removeAll(sequence(excludes));
+        moduleList = sequenceLinked(includes, excludes);
+        if (moduleList == null) {
+            moduleList = sequence(includes);
+            moduleList.removeAll(sequence(excludes));
+        }
         references = new References(request.type, request.minimize);
         for (Module module : moduleList) {
             for (File file : module.resolve(request)) {
@@ -265,7 +313,7 @@ public class Repository {
         Library library;
         File file;
 
-        addReload(descriptor);
+        addReload(descriptor, false);
         source = Source.load(properties, base);
         library = (Library) Library.TYPE.loadXml(descriptor).get();
         autoFiles(resolver, library, source);
@@ -274,7 +322,7 @@ public class Repository {
             notLinked.put(module, descriptorModule.dependencies());
             for (Resource resource : descriptorModule.resources()) {
                 file = resolver.resolve(source.classpathBase, resource);
-                addReload(file);
+                addReload(file, true);
                 resolver.resolve(source.classpathBase, resource);
                 module.files().add(file);
             }
@@ -282,12 +330,13 @@ public class Repository {
         }
     }
 
-    private void addReload(File file) {
-        addReload(file.getNormal());
-        addReload(file.get(true));
+    private void addReload(File file, boolean content) {
+        addReload(file.getNormal(), content);
+        addReload(file.get(true), content);
     }
 
-    private void addReload(Node node) {
+    /** @param content true if the node is used for output only */
+    private void addReload(Node node, boolean content) {
         if (node instanceof WebdavNode) {
             return;
         }
@@ -295,6 +344,8 @@ public class Repository {
             // done
         } else if (node instanceof ZipNode) {
             node = node.getWorld().file(((ZipNode) node).getRoot().getZip().getName());
+            // the jar also contains descriptors
+            content = false;
         } else if (node instanceof MemoryNode) {
             // for tests
         } else {
@@ -303,6 +354,11 @@ public class Repository {
         if (!reloadFiles.contains(node)) {
             reloadFiles.add(node);
         }
+        if (content) {
+            contentFiles.add(node);
+        } else {
+            linkFiles.add(node);
+        }
     }
 
     private void autoFiles(Resolver life, Library library, Source source) throws IOException {
@@ -339,7 +395,7 @@ public class Repository {
             module = lookup(entry.getKey());
             if (module == null) {
                 module = new Module(entry.getKey(), source);
-                modules.add(module);
+                add(module);
             } else {
                 if (module.getSource() != source) {
                     throw new IllegalStateException();
@@ -393,7 +449,8 @@ public class Repository {
                     file = new File(tmp, null, file.getType(), file.getVariant());
                 }
                 module.files().add(file);
-                addReload(file);
+                // parsed for dependencies
+                addReload(file, false);
             }
         }
     }
@@ -493,8 +550,145 @@ public class Repository {
             throw new IllegalArgumentException(problems.toString());
         }
         result = reloadFiles;
+        plans.resize(0);
+        order();
+        index = Collections.unmodifiableMap(new HashMap<String, Module>(index));
+        contentFiles.removeAll(linkFiles);
+        contentFiles = Collections.unmodifiableSet(contentFiles);
         notLinked = null;
         reloadFiles = null;
+        linkFiles = null;
+        return result;
+    }
+
+    /**
+     * Same modules as sequence(includes) minus sequence(excludes), but read off the global order. Modules that
+     * neither depend on each other nor are ordered by the request may come out in a different order than
+     * Graph.sort puts them; everything else - dependencies first, includes in request order - is the same.
+     *
+     * @return null if includes or excludes don't follow the global order or if the repository is not linked;
+     * resolve falls back to sequence() then, which keeps the request order and reports duplicates and cycles
+     */
+    List<Module> sequenceLinked(List<Module> includes, List<Module> excludes) {
+        BitSet bits;
+        List<Module> result;
+
+        if (order == null || !ascending(includes) || !ascending(excludes)) {
+            return null;
+        }
+        bits = new BitSet(order.size());
+        for (Module module : includes) {
+            bits.or(closure(module));
+        }
+        for (Module module : excludes) {
+            bits.andNot(closure(module));
+        }
+        result = new ArrayList<Module>(bits.cardinality());
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            result.add(order.get(i));
+        }
         return result;
     }
+
+    /** @return true if every module comes strictly later in the global order than its predecessor in the list */
+    private boolean ascending(List<Module> list) {
+        int previous;
+        int position;
+
+        previous = -1;
+        for (Module module : list) {
+            position = positions.get(module);
+            if (position <= previous) {
+                return false;
+            }
+            previous = position;
+        }
+        return true;
+    }
+
+    /** @return the module and its transitive dependencies as bits into order; do not modify */
+    private BitSet closure(Module module) {
+        int start;
+        int position;
+        BitSet result;
+        List<Module> work;
+        Module current;
+
+        start = positions.get(module);
+        result = closures.get(start);
+        if (result == null) {
+            result = new BitSet(start + 1);
+            result.set(start);
+            work = new ArrayList<Module>();
+            work.add(module);
+            while (!work.isEmpty()) {
+                current = work.remove(work.size() - 1);
+                for (Module dependency : current.dependencies()) {
+                    position = positions.get(dependency);
+                    if (!result.get(position)) {
+                        result.set(position);
+                        work.add(dependency);
+                    }
+                }
+            }
+            // concurrent computations yield equal sets, so it doesn't matter which one wins
+            closures.set(start, result);
+        }
+        return result;
+    }
+
+    /** Depth-first post-order over all modules; iterative because dependency chains can be long. */
+    private void order() {
+        List<Module> stack;
+        List<Integer> next;
+        Set<Module> visiting;
+        Module module;
+        List<Module> dependencies;
+        Module dependency;
+        int top;
+        int idx;
+
+        order = new ArrayList<Module>(modules.size());
+        positions = new HashMap<Module, Integer>();
+        stack = new ArrayList<Module>();
+        next = new ArrayList<Integer>();
+        visiting = new HashSet<Module>();
+        for (Module root : modules) {
+            if (positions.containsKey(root)) {
+                continue;
+            }
+            stack.add(root);
+            next.add(0);
+            visiting.add(root);
+            while (!stack.isEmpty()) {
+                top = stack.size() - 1;
+                module = stack.get(top);
+                dependencies = module.dependencies();
+                idx = next.get(top);
+                if (idx < dependencies.size()) {
+                    next.set(top, idx + 1);
+                    dependency = dependencies.get(idx);
+                    if (positions.containsKey(dependency)) {
+                        continue;
+                    }
+                    if (!visiting.add(dependency)) {
+                        // cyclic dependencies; resolve reports them
+                        order = null;
+                        positions = null;
+                        closures = null;
+                        return;
+                    }
+                    stack.add(dependency);
+                    next.add(0);
+                } else {
+                    stack.remove(top);
+                    next.remove(top);
+                    visiting.remove(module);
+                    positions.put(module, order.size());
+                    order.add(module);
+                }
+            }
+        }
+        closures = new AtomicReferenceArray<BitSet>(order.size());
+    }
 }
@@ -65,9 +65,21 @@ public class Request {
         this.variant = variant;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        Request request;
+
+        if (obj instanceof Request) {
+            request = (Request) obj;
+            return modules.equals(request.modules) && type == request.type && minimize == request.minimize
+                    && variant.equals(request.variant);
+        }
+        return false;
+    }
+
     @Override
     public int hashCode() {
-        return modules.hashCode();
+        return ((modules.hashCode() * 31 + variant.hashCode()) * 31 + type.hashCode()) * 2 + (minimize ? 1 : 0);
     }
 
     @Override
@@ -0,0 +1,191 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import net.sf.beezle.sushi.fs.Node;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Processes paths in a background thread pool, so the first requests for them find their content cached. */
+public class Warmup {
+    private static final Logger LOG = Logger.getLogger(Warmup.class);
+
+    /** Warming up more paths than the caches hold just evicts the first ones again */
+    public static final int DEFAULT_MAX = 1000;
+
+    /** @return all combinations of module, type and variant */
+    public static List<String> paths(Repository repository) {
+        List<String> variants;
+        List<String> result;
+
+        variants = repository.getVariants();
+        result = new ArrayList<String>();
+        for (Module module : repository.modules()) {
+            addTypes(module, "head", result);
+            for (String variant : variants) {
+                addTypes(module, variant, result);
+            }
+        }
+        return result;
+    }
+
+    private static void addTypes(Module module, String variant, List<String> result) {
+        result.add(module.getName() + "/js/" + variant);
+        result.add(module.getName() + "/js-min/" + variant);
+        result.add(module.getName() + "/css/" + variant);
+        result.add(module.getName() + "/css-min/" + variant);
+    }
+
+    /** @return paths requested in the specified access log, up to max */
+    public static List<String> paths(Node log, String application, int max) throws IOException {
+        List<String> result;
+        int idx;
+
+        result = new ArrayList<String>();
+        for (String line : log.readLines()) {
+            line = line.trim();
+            line = line.substring(line.indexOf('|') + 1);
+            if (line.startsWith(application)) {
+                line = line.substring(application.length());
+                idx = line.indexOf(' ');
+                if (idx != -1) {
+                    line = line.substring(0, idx);
+                }
+                result.add(line);
+                if (result.size() == max) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    //--
+
+    private final Engine engine;
+    private final List<String> paths;
+    private final ExecutorService executor;
+    private final AtomicInteger remaining;
+    private final AtomicInteger failed;
+    private final CountDownLatch done;
+    private long started;
+
+    public Warmup(Engine engine, List<String> paths, int threads) {
+        this(engine, paths, threads, Integer.MAX_VALUE);
+    }
+
+    /** @param max number of distinct paths to warm up, the first ones win */
+    public Warmup(Engine engine, List<String> paths, int threads, int max) {
+        List<String> distinct;
+
+        distinct = new ArrayList<String>(new LinkedHashSet<String>(paths));
+        if (distinct.size() > max) {
+            LOG.info("warm-up limited to " + max + " of " + distinct.size() + " paths");
+            distinct = new ArrayList<String>(distinct.subList(0, max));
+        }
+        this.engine = engine;
+        this.paths = distinct;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread;
+
+                thread = new Thread(runnable, "jasmin-warmup-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.remaining = new AtomicInteger(this.paths.size());
+        this.failed = new AtomicInteger();
+        this.done = new CountDownLatch(1);
+    }
+
+    /** Returns immediately; use isDone or await to wait for the result */
+    public Warmup start() {
+        started = System.currentTimeMillis();
+        LOG.info("warming up " + paths.size() + " paths");
+        if (paths.isEmpty()) {
+            done.countDown();
+        }
+        for (final String path : paths) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        engine.process(path);
+                    } catch (IOException e) {
+                        failed(path, e);
+                    } catch (RuntimeException e) {
+                        failed(path, e);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            LOG.info("warm-up done: " + paths.size() + " paths, " + failed.get() + " failed, "
+                                    + (System.currentTimeMillis() - started) + " ms");
+                            done.countDown();
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        return this;
+    }
+
+    private void failed(String path, Exception e) {
+        // expected for combinations that don't exist, e.g. css for modules without css files
+        failed.incrementAndGet();
+        LOG.debug("warm-up failed for " + path + ": " + e.getMessage(), e);
+    }
+
+    /** Stops warming up; isDone returns true afterwards */
+    public void cancel() {
+        executor.shutdownNow();
+        done.countDown();
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    public int remaining() {
+        return remaining.get();
+    }
+
+    public int failed() {
+        return failed.get();
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.cache;
+
+import net.sf.beezle.jasmin.cache.util.GetThread;
+import net.sf.beezle.jasmin.cache.util.TestCache;
+import org.junit.Test;
+
+/** Prints lookup throughput for an increasing number of threads. Hits only, the cache is large enough for all keys. */
+public class CacheContentionFullTest {
+    private static final int REPEAT = 2000000;
+    private static final String[] KEYS = { "foo", "bar", "baz", "a", "bc", "def", "ghij", "klmno", "p", "qr", "stu" };
+
+    @Test
+    public void throughput() throws Exception {
+        TestCache cache;
+        int max;
+        long started;
+        long ms;
+
+        cache = new TestCache(1000);
+        max = Runtime.getRuntime().availableProcessors() * 2;
+        parallel(cache, 1); // warm-up
+        for (int count = 1; count <= max; count *= 2) {
+            started = System.currentTimeMillis();
+            parallel(cache, count);
+            ms = Math.max(1, System.currentTimeMillis() - started);
+            System.out.println(count + " thread(s): " + ((long) count * REPEAT / ms) + " gets/ms");
+        }
+        cache.validate();
+    }
+
+    private void parallel(TestCache cache, int count) throws Exception {
+        GetThread[] threads;
+
+        threads = new GetThread[count];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new GetThread(cache, REPEAT, KEYS);
+            threads[i].start();
+        }
+        for (GetThread thread : threads) {
+            thread.finish();
+        }
+    }
+}
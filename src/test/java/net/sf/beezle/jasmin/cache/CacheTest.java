@@ -22,6 +22,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -85,6 +88,8 @@ public class CacheTest {
     public void reordering() throws IOException {
         cache.get("foo");
         cache.get("bar");
+        // hits are stamped at most once per millisecond
+        nextMillisecond();
         cache.get("foo");
         cache.resize(3);
         assertEquals(1, cache.items());
@@ -92,6 +97,80 @@ public class CacheTest {
         assertNotNull(cache.probe("foo"));
     }
 
+    private static void nextMillisecond() {
+        long start;
+
+        start = System.currentTimeMillis();
+        while (System.currentTimeMillis() == start) {
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void lowWater() throws IOException {
+        // 100 keys of 5 characters fill the cache
+        for (int i = 0; i < 100; i++) {
+            cache.get(Integer.toString(10000 + i));
+        }
+        assertEquals(500, cache.size());
+        cache.get("10100");
+        // evicts down to the low-water mark (438) instead of the single item needed
+        assertEquals(101 - 14, cache.items());
+        assertEquals(435, cache.size());
+        assertNotNull(cache.probe("10100"));
+        assertNull(cache.probe("10000"));
+        // so the next additions don't evict again
+        for (int i = 101; i < 110; i++) {
+            cache.get(Integer.toString(10000 + i));
+        }
+        assertEquals(101 - 14 + 9, cache.items());
+    }
+
+    @Test
+    public void evictWhileHit() throws Exception {
+        final TestCache hit;
+        final String[] keys;
+        final AtomicBoolean done;
+        final AtomicReference<Throwable> failure;
+        Thread thread;
+
+        hit = new TestCache(50000);
+        keys = new String[10000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Integer.toString(10000 + i);
+            hit.get(keys[i]);
+        }
+        done = new AtomicBoolean();
+        failure = new AtomicReference<Throwable>();
+        thread = new Thread() {
+            @Override
+            public void run() {
+                Random random;
+
+                random = new Random(0);
+                try {
+                    while (!done.get()) {
+                        // random order, so ticks change all over the list being sorted
+                        hit.get(keys[random.nextInt(keys.length)]);
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        thread.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                hit.toString();
+                hit.resize(50000 - i * 1000);
+            }
+        } finally {
+            done.set(true);
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
     @Test
     public void stats() throws IOException {
         String key = "foo";
@@ -23,7 +23,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 public class ConcurrentCacheFullTest {
-    private Cache<String, String> cache;
+    private TestCache cache;
 
     @Before
     public void before() {
@@ -16,18 +16,16 @@
  */
 package net.sf.beezle.jasmin.cache.util;
 
-import net.sf.beezle.jasmin.cache.Cache;
-
 import java.util.Random;
 
 public class GetThread extends Thread {
-    private final Cache<String, String> cache;
+    private final TestCache cache;
     private final int repeat;
     private final String[] keys;
     private final Random random;
     private Exception exception;
 
-    public GetThread(Cache<String, String> cache, int repeat, String[] keys) {
+    public GetThread(TestCache cache, int repeat, String[] keys) {
         this.cache = cache;
         this.repeat = repeat;
         this.keys = keys;
@@ -45,7 +43,7 @@ public class GetThread extends Thread {
                 if (random.nextBoolean()) {
                     cache.probe(key);
                 } else {
-                    throw new RuntimeException("TODO: cache.get(key);");
+                    cache.get(key);
                 }
             } catch (Exception e) {
                 exception = e;
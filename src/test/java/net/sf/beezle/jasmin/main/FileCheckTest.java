@@ -18,6 +18,7 @@ package net.sf.beezle.jasmin.main;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class FileCheckTest {
@@ -28,6 +29,7 @@ public class FileCheckTest {
         check = new FileCheck();
         check.minimizeClasspath();
         assertTrue(check.size() > 1);
+        assertEquals(check.size(), check.report().split("\n").length);
         check = check.exceptions();
         assertTrue(check.toString(), check.size() == 0);
     }
@@ -0,0 +1,148 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.main;
+
+import net.sf.beezle.jasmin.descriptor.Base;
+import net.sf.beezle.jasmin.model.Encoding;
+import net.sf.beezle.jasmin.model.Engine;
+import net.sf.beezle.jasmin.model.Repository;
+import net.sf.beezle.jasmin.model.Resolver;
+import net.sf.beezle.sushi.fs.World;
+import org.apache.log4j.Appender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.varia.NullAppender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Fails if serving a cached content via Servlet.doGet allocates more than expected, with and without the access log
+ * line that Servlet writes at info level for every hit.
+ */
+public class HitAllocationTest {
+    private static final String PATH = "two/js-min/lead";
+    private static final String ACCEPT_ENCODING = "gzip, deflate, br;q=0.5";
+    private static final String ACCEPT_CHARSET = "ISO-8859-1,UTF-8;q=0.7,*;q=0.3";
+    private static final String USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64; rv:31.0) Gecko/20100101 Firefox/31.0";
+    private static final String IF_NONE_MATCH = "\"outdated-gzip\", W/\"other-gzip\"";
+
+    private static final int WARMUP = 50000;
+    private static final int HITS = 50000;
+    /**
+     * The path substring costs 56 to 72 bytes depending on the vm's object layout; a second object per hit
+     * exceeds this limit.
+     */
+    private static final long MAX_BYTES_PER_HIT = 80;
+    /**
+     * Info logging is on by default, and Warmup mines the access log. Its line adds the concatenated string with
+     * the builder's intermediate arrays, and log4j's LoggingEvent: about 300 to 600 bytes depending on the vm's
+     * string representation. Appenders allocate more when formatting, that's not measured here.
+     */
+    private static final long MAX_BYTES_PER_LOGGED_HIT = 1024;
+
+    private Engine engine;
+    private Servlet servlet;
+    private Logger log;
+    private Level level;
+    private boolean additivity;
+    private Appender appender;
+
+    @Before
+    public void before() throws IOException {
+        World world;
+        Resolver resolver;
+        Application application;
+
+        world = new World();
+        resolver = new Resolver(world, false);
+        resolver.add(Base.CLASSPATH, world.guessProjectHome(HitAllocationTest.class).join("src/test/resources"));
+        engine = new Engine(Repository.load(resolver), Encoding.createAll(Encoding.GZIP), null, false, 1);
+        application = new Application(null, resolver, "test", null, Application.MANY_YEARS);
+        servlet = new Servlet(application, engine, UserAgents.parse(UserAgents.DEFAULT_POLICY, UserAgents.DEFAULT_MAX));
+        // log events are created, but not written anywhere
+        log = Logger.getLogger(Servlet.class);
+        level = log.getLevel();
+        additivity = log.getAdditivity();
+        appender = new NullAppender();
+        log.setAdditivity(false);
+        log.addAppender(appender);
+    }
+
+    @After
+    public void after() {
+        log.removeAppender(appender);
+        log.setAdditivity(additivity);
+        log.setLevel(level);
+    }
+
+    @Test
+    public void hit() throws Exception {
+        log.setLevel(Level.WARN);
+        check(MAX_BYTES_PER_HIT);
+    }
+
+    @Test
+    public void hitLogged() throws Exception {
+        log.setLevel(Level.INFO);
+        check(MAX_BYTES_PER_LOGGED_HIT);
+    }
+
+    private void check(long maxBytesPerHit) throws Exception {
+        ThreadMXBean threads;
+        com.sun.management.ThreadMXBean allocations;
+        NullRequest request;
+        NullResponse response;
+        long id;
+        long before;
+        long perHit;
+
+        threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+        request = new NullRequest("/get/" + Servlet.VM_STARTUP_STR + "/" + PATH)
+                .header("Accept-Encoding", ACCEPT_ENCODING)
+                .header("Accept-Charset", ACCEPT_CHARSET)
+                .header("User-Agent", USER_AGENT)
+                .header("If-None-Match", IF_NONE_MATCH);
+        response = new NullResponse();
+        for (int i = 0; i < WARMUP; i++) {
+            servlet.doGet(request, response);
+        }
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        id = Thread.currentThread().getId();
+        before = allocations.getThreadAllocatedBytes(id);
+        for (int i = 0; i < HITS; i++) {
+            servlet.doGet(request, response);
+        }
+        perHit = (allocations.getThreadAllocatedBytes(id) - before) / HITS;
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals(1, engine.builds());
+        assertTrue("allocated " + perHit + " bytes per hit, expected at most " + maxBytesPerHit,
+                perHit <= maxBytesPerHit);
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.main;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.BufferedReader;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/** Get request with fixed path and headers; answers without allocating. */
+public class NullRequest implements HttpServletRequest {
+    private final String pathInfo;
+    private final Map<String, String> headers;
+
+    public NullRequest(String pathInfo) {
+        this.pathInfo = pathInfo;
+        this.headers = new HashMap<String, String>();
+    }
+
+    public NullRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    //-- HttpServletRequest
+
+    public String getAuthType() {
+        return null;
+    }
+
+    public Cookie[] getCookies() {
+        return null;
+    }
+
+    public long getDateHeader(String name) {
+        return -1;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public Enumeration getHeaders(String name) {
+        return Collections.enumeration(Collections.singletonList(headers.get(name)));
+    }
+
+    public Enumeration getHeaderNames() {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    public int getIntHeader(String name) {
+        return -1;
+    }
+
+    public String getMethod() {
+        return "GET";
+    }
+
+    public String getPathInfo() {
+        return pathInfo;
+    }
+
+    public String getPathTranslated() {
+        return null;
+    }
+
+    public String getContextPath() {
+        return "";
+    }
+
+    public String getQueryString() {
+        return null;
+    }
+
+    public String getRemoteUser() {
+        return null;
+    }
+
+    public boolean isUserInRole(String role) {
+        return false;
+    }
+
+    public Principal getUserPrincipal() {
+        return null;
+    }
+
+    public String getRequestedSessionId() {
+        return null;
+    }
+
+    public String getRequestURI() {
+        return pathInfo;
+    }
+
+    public StringBuffer getRequestURL() {
+        return new StringBuffer("http://localhost").append(pathInfo);
+    }
+
+    public String getServletPath() {
+        return "";
+    }
+
+    public HttpSession getSession(boolean create) {
+        return null;
+    }
+
+    public HttpSession getSession() {
+        return null;
+    }
+
+    public boolean isRequestedSessionIdValid() {
+        return false;
+    }
+
+    public boolean isRequestedSessionIdFromCookie() {
+        return false;
+    }
+
+    public boolean isRequestedSessionIdFromURL() {
+        return false;
+    }
+
+    public boolean isRequestedSessionIdFromUrl() {
+        return false;
+    }
+
+    //-- ServletRequest
+
+    public Object getAttribute(String name) {
+        return null;
+    }
+
+    public Enumeration getAttributeNames() {
+        return Collections.enumeration(Collections.emptyList());
+    }
+
+    public String getCharacterEncoding() {
+        return null;
+    }
+
+    public void setCharacterEncoding(String env) {
+    }
+
+    public int getContentLength() {
+        return -1;
+    }
+
+    public String getContentType() {
+        return null;
+    }
+
+    public ServletInputStream getInputStream() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getParameter(String name) {
+        return null;
+    }
+
+    public Enumeration getParameterNames() {
+        return Collections.enumeration(Collections.emptyList());
+    }
+
+    public String[] getParameterValues(String name) {
+        return null;
+    }
+
+    public Map getParameterMap() {
+        return Collections.emptyMap();
+    }
+
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    public String getScheme() {
+        return "http";
+    }
+
+    public String getServerName() {
+        return "localhost";
+    }
+
+    public int getServerPort() {
+        return 80;
+    }
+
+    public BufferedReader getReader() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getRemoteAddr() {
+        return "127.0.0.1";
+    }
+
+    public String getRemoteHost() {
+        return "localhost";
+    }
+
+    public void setAttribute(String name, Object o) {
+    }
+
+    public void removeAttribute(String name) {
+    }
+
+    public Locale getLocale() {
+        return Locale.getDefault();
+    }
+
+    public Enumeration getLocales() {
+        return Collections.enumeration(Collections.singletonList(Locale.getDefault()));
+    }
+
+    public boolean isSecure() {
+        return false;
+    }
+
+    public RequestDispatcher getRequestDispatcher(String path) {
+        return null;
+    }
+
+    public String getRealPath(String path) {
+        return null;
+    }
+
+    public int getRemotePort() {
+        return 0;
+    }
+
+    public String getLocalName() {
+        return "localhost";
+    }
+
+    public String getLocalAddr() {
+        return "127.0.0.1";
+    }
+
+    public int getLocalPort() {
+        return 80;
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.main;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+/** Discards everything, without allocating. */
+public class NullResponse implements HttpServletResponse {
+    private final ServletOutputStream out;
+    private final PrintWriter writer;
+    private int status;
+    private String contentType;
+    private String characterEncoding;
+
+    public NullResponse() {
+        this.out = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        this.writer = new PrintWriter(new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        this.status = SC_OK;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    //-- HttpServletResponse
+
+    public void addCookie(Cookie cookie) {
+    }
+
+    public boolean containsHeader(String name) {
+        return false;
+    }
+
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    public String encodeUrl(String url) {
+        return url;
+    }
+
+    public String encodeRedirectUrl(String url) {
+        return url;
+    }
+
+    public void sendError(int sc, String msg) {
+        status = sc;
+    }
+
+    public void sendError(int sc) {
+        status = sc;
+    }
+
+    public void sendRedirect(String location) {
+        status = SC_MOVED_TEMPORARILY;
+    }
+
+    public void setDateHeader(String name, long date) {
+    }
+
+    public void addDateHeader(String name, long date) {
+    }
+
+    public void setHeader(String name, String value) {
+    }
+
+    public void addHeader(String name, String value) {
+    }
+
+    public void setIntHeader(String name, int value) {
+    }
+
+    public void addIntHeader(String name, int value) {
+    }
+
+    public void setStatus(int sc) {
+        status = sc;
+    }
+
+    public void setStatus(int sc, String sm) {
+        status = sc;
+    }
+
+    //-- ServletResponse
+
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public ServletOutputStream getOutputStream() {
+        return out;
+    }
+
+    public PrintWriter getWriter() {
+        return writer;
+    }
+
+    public void setCharacterEncoding(String charset) {
+        this.characterEncoding = charset;
+    }
+
+    public void setContentLength(int len) {
+    }
+
+    public void setContentType(String type) {
+        this.contentType = type;
+    }
+
+    public void setBufferSize(int size) {
+    }
+
+    public int getBufferSize() {
+        return 0;
+    }
+
+    public void flushBuffer() throws IOException {
+    }
+
+    public void resetBuffer() {
+    }
+
+    public boolean isCommitted() {
+        return false;
+    }
+
+    public void reset() {
+        status = SC_OK;
+    }
+
+    public void setLocale(Locale loc) {
+    }
+
+    public Locale getLocale() {
+        return Locale.getDefault();
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.main;
+
+import net.sf.beezle.jasmin.descriptor.Base;
+import net.sf.beezle.jasmin.model.ContentStore;
+import net.sf.beezle.jasmin.model.Encoding;
+import net.sf.beezle.jasmin.model.Engine;
+import net.sf.beezle.jasmin.model.Repository;
+import net.sf.beezle.jasmin.model.Resolver;
+import net.sf.beezle.sushi.fs.World;
+import net.sf.beezle.sushi.fs.file.FileNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrecompileTest {
+    @Test
+    public void archive() throws IOException {
+        FileNode dir;
+        Repository repository;
+        Map<String, String> manifest;
+        Engine compiling;
+        Engine archived;
+        int files;
+
+        dir = new World().getTemp().createTempDirectory();
+        try {
+            repository = repository();
+            manifest = new Precompile(repository, new ContentStore(new java.io.File(dir.getURI())), Encoding.createAll(Encoding.GZIP))
+                    .run(Arrays.asList("foo/js/lead", "two/js-min/lead"));
+            assertEquals(2, manifest.size());
+            files = dir.find("**/*").size();
+            compiling = new Engine(repository);
+            archived = new Engine(repository(), Encoding.createAll(Encoding.GZIP),
+                    ContentStore.archive(new java.io.File(dir.getURI())), false, 1);
+            assertEquals(compiling.process("foo/js/lead"), archived.process("foo/js/lead"));
+            assertEquals(compiling.process("two/js-min/lead"), archived.process("two/js-min/lead"));
+            assertEquals(0, archived.builds());
+            assertEquals(2, archived.loaded());
+            // not in the manifest
+            archived.process("foo/css/lead");
+            assertEquals(1, archived.builds());
+            // the archive is read-only
+            assertEquals(files, dir.find("**/*").size());
+        } finally {
+            dir.deleteTree();
+        }
+    }
+
+    @Test
+    public void storeWithArchive() throws IOException {
+        FileNode dir;
+        FileNode runtime;
+        Repository repository;
+        ContentStore archive;
+        Engine engine;
+        int files;
+
+        dir = new World().getTemp().createTempDirectory();
+        runtime = new World().getTemp().createTempDirectory();
+        try {
+            repository = repository();
+            new Precompile(repository, new ContentStore(new java.io.File(dir.getURI())), Encoding.createAll(Encoding.GZIP))
+                    .run(Arrays.asList("foo/js/lead"));
+            files = dir.find("**/*").size();
+            archive = ContentStore.archive(new java.io.File(dir.getURI()));
+            engine = new Engine(repository(), Encoding.createAll(Encoding.GZIP),
+                    new ContentStore(new java.io.File(runtime.getURI()), archive), false, 1);
+            engine.process("foo/js/lead");
+            engine.process("foo/css/lead");
+            assertEquals(1, engine.builds());
+            assertEquals(1, engine.loaded());
+            assertEquals(files, dir.find("**/*").size());
+            // runtime builds survive a restart
+            engine = new Engine(repository(), Encoding.createAll(Encoding.GZIP),
+                    new ContentStore(new java.io.File(runtime.getURI()), archive), false, 1);
+            engine.process("foo/css/lead");
+            assertEquals(0, engine.builds());
+            assertEquals(1, engine.loaded());
+        } finally {
+            dir.deleteTree();
+            runtime.deleteTree();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void existingManifest() throws IOException {
+        FileNode dir;
+        ContentStore store;
+
+        dir = new World().getTemp().createTempDirectory();
+        try {
+            store = new ContentStore(new java.io.File(dir.getURI()));
+            store.writeManifest(new HashMap<String, String>());
+            store = new ContentStore(new java.io.File(dir.getURI()));
+            assertTrue(store.hasManifest());
+            new Precompile(repository(), store, Encoding.createAll(Encoding.GZIP));
+        } finally {
+            dir.deleteTree();
+        }
+    }
+
+    private static Repository repository() throws IOException {
+        World world;
+        Resolver resolver;
+
+        world = new World();
+        resolver = new Resolver(world, true);
+        resolver.add(Base.CLASSPATH, world.guessProjectHome(PrecompileTest.class).join("src/test/resources"));
+        return Repository.load(resolver);
+    }
+}
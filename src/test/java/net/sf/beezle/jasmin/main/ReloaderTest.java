@@ -0,0 +1,101 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.main;
+
+import net.sf.beezle.sushi.fs.Node;
+import net.sf.beezle.sushi.fs.World;
+import net.sf.beezle.sushi.fs.file.FileNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReloaderTest {
+    /** generous, events usually arrive after DEBOUNCE; only reached if the test fails */
+    private static final long TIMEOUT = 30;
+
+    @Test
+    public void watch() throws Exception {
+        FileNode dir;
+        final FileNode content;
+        final FileNode descriptor;
+        final List<Node> files;
+        final BlockingQueue<List<Node>> invalidated;
+        final BlockingQueue<List<Node>> reloaded;
+        Reloader reloader;
+        List<Node> changed;
+        int count;
+
+        dir = new World().getTemp().createTempDirectory();
+        content = dir.join("content.js");
+        content.writeString("");
+        descriptor = dir.join("jasmin.xml");
+        descriptor.writeString("");
+        files = Arrays.<Node>asList(content, descriptor);
+        invalidated = new LinkedBlockingQueue<List<Node>>();
+        reloaded = new LinkedBlockingQueue<List<Node>>();
+        reloader = new Reloader("test", 100, files, System.currentTimeMillis()) {
+            @Override
+            protected boolean invalidate(List<Node> changed) {
+                invalidated.add(changed);
+                return !changed.contains(descriptor);
+            }
+
+            @Override
+            protected List<Node> reload() throws IOException {
+                reloaded.add(files);
+                return files;
+            }
+        };
+        reloader.start();
+        try {
+            // the reloader has to register its watches first; modify until it reports something
+            for (int i = 0; invalidated.poll(1, TimeUnit.SECONDS) == null; i++) {
+                assertTrue("no events", i < TIMEOUT);
+                content.writeString("ping " + i);
+            }
+            // debounced into a single event, unless the machine stalls longer than DEBOUNCE between writes
+            for (int i = 0; i < 5; i++) {
+                content.writeString("modified " + i);
+            }
+            changed = invalidated.poll(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(Arrays.<Node>asList(content), changed);
+            assertEquals(0, reloaded.size());
+            descriptor.writeString("modified");
+            count = 0;
+            do {
+                changed = invalidated.poll(TIMEOUT, TimeUnit.SECONDS);
+                assertNotNull(changed);
+                count++;
+            } while (!changed.contains(descriptor));
+            assertTrue("not debounced: " + count, count < 5);
+            assertEquals(files, reloaded.poll(TIMEOUT, TimeUnit.SECONDS));
+        } finally {
+            reloader.shutdown();
+            reloader.join();
+            dir.deleteTree();
+        }
+    }
+}
@@ -22,9 +22,12 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class ServletTest {
@@ -58,6 +61,24 @@ public class ServletTest {
         assertEquals(expected, result);
     }
 
+    @Test
+    public void negotiate() {
+        List<String> available;
+
+        available = Arrays.asList("br", "zstd", "gzip");
+        assertNull(Servlet.negotiate("", available));
+        assertNull(Servlet.negotiate("deflate", available));
+        assertEquals("gzip", Servlet.negotiate("gzip", available));
+        assertEquals("gzip", Servlet.negotiate("gzip, deflate", available));
+        assertEquals("br", Servlet.negotiate("gzip, deflate, br", available));
+        assertEquals("br", Servlet.negotiate("*", available));
+        assertEquals("gzip", Servlet.negotiate("br;q=0.5, gzip", available));
+        assertEquals("zstd", Servlet.negotiate("br;q=0, *;q=0.1", available));
+        assertNull(Servlet.negotiate("br;q=0, gzip; q=0", available));
+        assertEquals("gzip", Servlet.negotiate("GZIP", available));
+        assertEquals("gzip", Servlet.negotiate("br;q=0.5, gzip", Arrays.asList("gzip")));
+    }
+
     @Test
     public void whitelist() {
         assertFalse(Servlet.whiteListed(""));
@@ -93,4 +114,13 @@ public class ServletTest {
         System.out.println("count: " + count);
         reader.close();
     }
+
+    @Test
+    public void matches() {
+        assertTrue(Servlet.matches("\"abc-gzip\"", "\"abc-gzip\""));
+        assertTrue(Servlet.matches("\"x\", W/\"abc-gzip\"", "\"abc-gzip\""));
+        assertTrue(Servlet.matches("*", "\"abc-gzip\""));
+        assertFalse(Servlet.matches("\"abc-identity\"", "\"abc-gzip\""));
+        assertFalse(Servlet.matches("", "\"abc-gzip\""));
+    }
 }
@@ -0,0 +1,81 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.main;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UserAgentsTest {
+    private static final String FIREFOX =
+            "Mozilla/5.0 (X11; U; Linux x86_64; de; rv:1.9.0.10) Gecko/2009042523 Ubuntu/9.04 (jaunty) Firefox/3.0.10";
+    private static final String MSIE6 = "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1)";
+    private static final String MSIE7 = "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0; Trident/4.0)";
+
+    @Test
+    public void defaultPolicy() {
+        UserAgents agents;
+
+        agents = UserAgents.parse(UserAgents.DEFAULT_POLICY, 100);
+        assertTrue(agents.classify(FIREFOX));
+        assertTrue(agents.classify(MSIE7));
+        assertFalse(agents.classify(MSIE6));
+        assertFalse(agents.classify(""));
+        assertFalse(agents.classify("Mozilla/"));
+        assertFalse(agents.classify("Mozilla/5"));
+        assertFalse(agents.classify("Googlebot/2.1 (+http://www.google.com/bot.html)"));
+        // anchored at the start
+        assertFalse(agents.classify("Opera " + FIREFOX));
+        assertFalse(agents.classify("Mozilla/4.0 (compatible; Googlebot; MSIE 8.0)"));
+        assertFalse(agents.classify("Opera MSIE 8.0"));
+    }
+
+    @Test
+    public void customPolicy() {
+        UserAgents agents;
+
+        agents = UserAgents.parse(" Mozilla/4.0 (compatible; MSIE :6,Googlebot/:2", 100);
+        assertTrue(agents.classify(MSIE6));
+        assertTrue(agents.classify("Googlebot/2.1 (+http://www.google.com/bot.html)"));
+        assertFalse(agents.classify(FIREFOX));
+        assertFalse(UserAgents.parse("", 100).classify(FIREFOX));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPolicy() {
+        UserAgents.parse("MSIE", 100);
+    }
+
+    @Test
+    public void cache() {
+        UserAgents agents;
+
+        agents = UserAgents.parse(UserAgents.DEFAULT_POLICY, 2);
+        assertTrue(agents.accepts(FIREFOX));
+        assertTrue(agents.accepts(FIREFOX));
+        assertFalse(agents.accepts(MSIE6));
+        assertFalse(agents.accepts(MSIE6));
+        assertEquals(2, agents.hits());
+        assertEquals(2, agents.misses());
+        assertEquals(2, agents.size());
+        assertTrue(agents.accepts(MSIE7));
+        assertEquals(1, agents.clears());
+        assertEquals(1, agents.size());
+    }
+}
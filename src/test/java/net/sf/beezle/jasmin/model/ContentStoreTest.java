@@ -0,0 +1,247 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ContentStoreTest {
+    private java.io.File dir;
+    private ContentStore store;
+
+    @Before
+    public void before() throws IOException {
+        dir = java.io.File.createTempFile("store", "");
+        dir.delete();
+        store = new ContentStore(dir);
+    }
+
+    @After
+    public void after() {
+        delete(dir);
+    }
+
+    private static void delete(java.io.File file) {
+        java.io.File[] children;
+
+        children = file.listFiles();
+        if (children != null) {
+            for (java.io.File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void content() throws IOException {
+        Map<String, byte[]> encoded;
+        Content content;
+
+        assertNull(store.load("abc"));
+        encoded = new LinkedHashMap<String, byte[]>();
+        encoded.put("gzip", new byte[] { 1, 2 });
+        encoded.put("br", new byte[] {});
+        store.save("abc", new Content("text/javascript", 17, "var a;".getBytes("utf-8"), encoded));
+        content = store.load("abc");
+        assertEquals("text/javascript", content.mimeType);
+        assertEquals(17, content.lastModified);
+        assertEquals("var a;", new String(content.getBytes(null), "utf-8"));
+        assertEquals(2, content.encoded().size());
+        assertEquals(2, content.length("gzip"));
+        assertEquals(0, content.length("br"));
+        content = store.map("abc");
+        assertEquals("var a;", new String(content.getBytes(null), "utf-8"));
+        assertEquals(2, content.getBytes("gzip")[1]);
+        assertEquals(8, content.size());
+    }
+
+    @Test
+    public void index() throws IOException {
+        assertNull(store.lookup("foo/js/lead", "src", 1));
+        store.index("foo/js/lead", "src", 1, "abc");
+        assertEquals("abc", store.lookup("foo/js/lead", "src", 1));
+        assertNull(store.lookup("foo/js/lead", "src", 2));
+        assertNull(store.lookup("foo/js/lead", "other", 1));
+        assertNull(store.lookup("foo/js-min/lead", "src", 1));
+        store.index("foo/js/lead", "src", 2, "def");
+        assertEquals("def", store.lookup("foo/js/lead", "src", 2));
+    }
+
+    @Test
+    public void truncatedContent() throws IOException {
+        java.io.File file;
+        RandomAccessFile dest;
+
+        store.save("abc", sample());
+        file = new java.io.File(dir, "content/abc");
+        dest = new RandomAccessFile(file, "rw");
+        try {
+            dest.setLength(dest.length() - 3);
+        } finally {
+            dest.close();
+        }
+        assertNull(store.map("abc"));
+        assertFalse(file.exists());
+        store.save("abc", sample());
+        write(file, "garbage");
+        assertNull(store.load("abc"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void corruptedIndex() throws IOException {
+        java.io.File file;
+
+        store.index("foo/js/lead", "src", 1, "abc");
+        file = new java.io.File(dir, "index").listFiles()[0];
+        write(file, "foo/js/lead\nsrc\nxyz\nabc");
+        assertNull(store.lookup("foo/js/lead", "src", 1));
+        assertFalse(file.exists());
+        store.index("foo/js/lead", "src", 1, "abc");
+        write(file, "foo/js/lead\n");
+        assertNull(store.lookup("foo/js/lead", "src", 1));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void cleanup() throws IOException {
+        long old;
+
+        store.save("abc", sample());
+        store.save("def", sample());
+        store.save("ghi", sample());
+        store.index("foo/js/lead", "src", 1, "abc");
+        store.index("foo/css/lead", "src", 1, "def");
+        assertEquals(0, store.cleanup(1000));
+        old = System.currentTimeMillis() - 2000;
+        for (String name : new String[] { "content/abc", "content/def", "content/ghi" }) {
+            new java.io.File(dir, name).setLastModified(old);
+        }
+        for (java.io.File file : new java.io.File(dir, "index").listFiles()) {
+            file.setLastModified(old);
+        }
+        // refreshes the entry
+        assertEquals("abc", store.lookup("foo/js/lead", "src", 1));
+        // removes the foo/css/lead entry, def and ghi
+        assertEquals(3, store.cleanup(1000));
+        assertEquals("abc", store.lookup("foo/js/lead", "src", 1));
+        assertNotNull(store.load("abc"));
+        assertNull(store.lookup("foo/css/lead", "src", 1));
+        assertNull(store.load("def"));
+        assertNull(store.load("ghi"));
+    }
+
+    @Test
+    public void archive() throws IOException {
+        Map<String, String> manifest;
+        ContentStore archive;
+        ContentStore runtime;
+        java.io.File runtimeDir;
+
+        try {
+            ContentStore.archive(dir);
+            fail();
+        } catch (IOException e) {
+            // ok, no manifest
+        }
+        store.save("abc", sample());
+        store.index("foo/js/lead", "src", 1, "abc");
+        manifest = new LinkedHashMap<String, String>();
+        manifest.put("foo/js/lead", "abc");
+        store.writeManifest(manifest);
+        archive = ContentStore.archive(dir);
+        assertTrue(archive.isReadOnly());
+        try {
+            archive.save("def", sample());
+            fail();
+        } catch (IOException e) {
+            // ok
+        }
+        runtimeDir = new java.io.File(dir, "runtime");
+        runtime = new ContentStore(runtimeDir, archive);
+        assertFalse(runtime.isReadOnly());
+        assertTrue(runtime.hasManifest());
+        assertEquals("abc", runtime.manifest("foo/js/lead"));
+        assertEquals("abc", runtime.lookup("foo/js/lead", "src", 1));
+        assertNotNull(runtime.load("abc"));
+        assertNotNull(runtime.map("abc"));
+        runtime.save("def", sample());
+        assertTrue(new java.io.File(runtimeDir, "content/def").isFile());
+        assertFalse(new java.io.File(dir, "content/def").exists());
+        assertNull(archive.load("def"));
+    }
+
+    private static Content sample() throws IOException {
+        Map<String, byte[]> encoded;
+
+        encoded = new LinkedHashMap<String, byte[]>();
+        encoded.put("gzip", new byte[] { 1, 2 });
+        return new Content("text/javascript", 17, "var a;".getBytes("utf-8"), encoded);
+    }
+
+    private static void write(java.io.File file, String str) throws IOException {
+        FileOutputStream dest;
+
+        dest = new FileOutputStream(file);
+        try {
+            dest.write(str.getBytes("utf-8"));
+        } finally {
+            dest.close();
+        }
+    }
+
+    @Test
+    public void manifest() throws IOException {
+        Map<String, String> manifest;
+        ContentStore reopened;
+
+        assertFalse(store.hasManifest());
+        assertNull(store.manifest("foo/js/lead"));
+        manifest = new LinkedHashMap<String, String>();
+        manifest.put("foo/js/lead", "abc");
+        manifest.put("foo/css/lead", "def");
+        store.writeManifest(manifest);
+        reopened = new ContentStore(dir);
+        assertTrue(reopened.hasManifest());
+        assertEquals("abc", reopened.manifest("foo/js/lead"));
+        assertEquals("def", reopened.manifest("foo/css/lead"));
+        assertNull(reopened.manifest("foo/js-min/lead"));
+    }
+
+    @Test
+    public void isArchive() throws IOException {
+        assertFalse(ContentStore.isArchive(dir));
+        store.writeManifest(new LinkedHashMap<String, String>());
+        assertTrue(ContentStore.isArchive(dir));
+        assertFalse(ContentStore.isArchive(new java.io.File(dir, ContentStore.CONTENT)));
+    }
+}
@@ -17,21 +17,32 @@
 package net.sf.beezle.jasmin.model;
 
 import net.sf.beezle.jasmin.descriptor.Base;
+import net.sf.beezle.sushi.fs.Node;
 import net.sf.beezle.sushi.fs.World;
+import net.sf.beezle.sushi.graph.CyclicDependency;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class EngineTest {
+    private Resolver resolver;
     private Engine engine;
 
     @Before
     public void before() throws IOException {
         World world;
-        Resolver resolver;
 
         world = new World();
         resolver = new Resolver(world, true);
@@ -73,6 +84,219 @@ public class EngineTest {
         assertEquals("var str=\"äöü\";var a=0;var b=2;", engine.process("foo/js-min/lead"));
     }
 
+    @Test
+    public void stats() throws IOException {
+        engine.process("foo/js/lead");
+        engine.process("foo/js/lead");
+        assertEquals(1, engine.builds());
+        engine.process("foo/js/unknown");
+        assertEquals(2, engine.builds());
+        assertEquals(1, engine.shared());
+        assertEquals(0, engine.coalesced());
+    }
+
+    @Test
+    public void fragments() throws IOException {
+        assertEquals("var str=\"äöü\";var a=0;var b=2;", engine.process("foo/js-min/lead"));
+        assertEquals(1, engine.fragmentCache.items());
+        assertEquals("var str=\"äöü\";var a=0;var b=2;\nvar special=0;", engine.process("two/js-min/lead"));
+        assertEquals(2, engine.fragmentCache.items());
+        assertEquals(1, engine.fragmentCache.gets() - engine.fragmentCache.misses());
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        Node special;
+
+        engine.process("foo/js/lead");
+        engine.process("two/js/lead");
+        engine.process("two/js-min/lead");
+        assertEquals(3, engine.builds());
+        special = engine.repository.resolve(Request.parse("foo/js/special")).nodes.get(0);
+        assertTrue(engine.invalidate(Arrays.asList(special)));
+        engine.process("foo/js/lead");
+        assertEquals(3, engine.builds());
+        engine.process("two/js/lead");
+        engine.process("two/js-min/lead");
+        assertEquals(5, engine.builds());
+        // the fragment of my.js survived
+        assertEquals(1, engine.fragmentCache.gets() - engine.fragmentCache.misses());
+    }
+
+    @Test
+    public void dependentsFollowHashCache() throws Exception {
+        Node special;
+
+        engine.process("foo/js/lead");
+        engine.process("two/js/lead");
+        engine.process("foo/js/crafted-variant-1");
+        engine.process("foo/js/crafted-variant-2");
+        assertTrue(engine.dependents() > 0);
+        special = engine.repository.resolve(Request.parse("foo/js/special")).nodes.get(0);
+        assertTrue(engine.invalidate(Arrays.asList(special)));
+        engine.hashCache.resize(0);
+        assertEquals(0, engine.dependents());
+    }
+
+    @Test
+    public void murmur3() throws IOException {
+        Engine murmur3;
+
+        murmur3 = new Engine(engine.repository, Encoding.createAll(Encoding.GZIP), null, false, 1,
+                Hashing.create(Hashing.MURMUR3));
+        assertEquals(engine.process("two/js-min/lead"), murmur3.process("two/js-min/lead"));
+        assertEquals(32, murmur3.hashCache.probe("two/js-min/lead").length());
+    }
+
+    @Test
+    public void etag() throws IOException {
+        String hash;
+
+        assertNull(engine.getETag("foo/js/lead", "gzip"));
+        assertTrue(engine.getLastModified("foo/js/lead") > 0);
+        engine.process("foo/js/lead");
+        hash = engine.getHash("foo/js/lead");
+        assertEquals("\"" + hash + "-gzip\"", engine.getETag("foo/js/lead", "gzip"));
+        assertEquals("\"" + hash + "-identity\"", engine.getETag("foo/js/lead", null));
+        assertEquals(1, engine.builds());
+    }
+
+    @Test
+    public void hashed() throws IOException {
+        String hashed;
+        String hash;
+
+        hashed = engine.getHashedPath("foo/js/lead");
+        hash = engine.getHash("foo/js/lead");
+        assertEquals("h/" + hash + "/foo/js/lead", hashed);
+        assertEquals(hashed, engine.getHashedPath("foo/js/lead"));
+        assertEquals(1, engine.builds());
+        assertEquals(engine.process("foo/js/lead"), new String(engine.lookup(hash).getBytes(null), "utf-8"));
+        assertNull(engine.lookup("0123abcd"));
+        assertNull(engine.lookup("../" + hash));
+        assertNull(engine.lookup(""));
+    }
+
+    @Test
+    public void hashedEvicted() throws IOException {
+        String hash;
+        String expected;
+
+        expected = engine.process("foo/js/lead");
+        hash = engine.getHash("foo/js/lead");
+        engine.contentCache.resize(0);
+        assertNull(engine.lookup(hash));
+        // the path still maps to the evicted hash
+        assertEquals("h/" + hash + "/foo/js/lead", engine.getHashedPath("foo/js/lead"));
+        assertEquals(expected, new String(engine.lookup(hash, "foo/js/lead").getBytes(null), "utf-8"));
+        assertEquals(2, engine.builds());
+        assertNotNull(engine.lookup(hash));
+        assertNull(engine.lookup("0123abcd", "foo/js/lead"));
+    }
+
+    @Test
+    public void manifest() throws IOException {
+        List<Engine.Entry> entries;
+
+        entries = engine.manifest(Arrays.asList("foo/js/lead", "two/js-min/lead", "nosuchmodule/js/lead", "foo+foo/js/lead"));
+        assertEquals(4, entries.size());
+        assertEquals("foo/js/lead", entries.get(0).path);
+        assertEquals(engine.getHashedPath("foo/js/lead"), entries.get(0).getHashedPath());
+        assertEquals(engine.process("two/js-min/lead").getBytes("utf-8").length, entries.get(1).size);
+        assertEquals(engine.getHash("two/js-min/lead"), entries.get(1).hash);
+        assertNull(entries.get(2).hash);
+        assertNotNull(entries.get(2).error);
+        // duplicate module
+        assertNull(entries.get(3).hash);
+        assertNotNull(entries.get(3).error);
+        assertEquals(2, engine.builds());
+    }
+
+    @Test
+    public void parallel() throws IOException {
+        Engine parallel;
+
+        parallel = new Engine(engine.repository, Encoding.createAll(Encoding.GZIP), null, false, 4);
+        for (String path : new String[] { "two/js/lead", "two/js-min/lead", "foo/css/lead", "foo/css-min/lead" }) {
+            assertEquals(path, engine.process(path), parallel.process(path));
+        }
+    }
+
+    @Test
+    public void coalesce() throws Exception {
+        final int threads = 8;
+        final SlowRepository repository;
+        final CountDownLatch start;
+        final Content[] results;
+        final AtomicReference<Throwable> failure;
+        Thread[] workers;
+
+        repository = new SlowRepository(threads - 1);
+        repository.loadClasspath(resolver);
+        repository.link();
+        repository.engine = new Engine(repository);
+        start = new CountDownLatch(1);
+        results = new Content[threads];
+        failure = new AtomicReference<Throwable>();
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int idx = i;
+
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results[idx] = repository.engine.doProcess("two/js/lead");
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(1, repository.engine.builds());
+        assertEquals(threads - 1, repository.engine.coalesced());
+        for (Content result : results) {
+            assertSame(results[0], result);
+        }
+    }
+
+    /** Holds the first resolve - i.e. the build - until the given number of requests joined it. */
+    private static class SlowRepository extends Repository {
+        private final int waiting;
+        private final AtomicBoolean first;
+        public volatile Engine engine;
+
+        public SlowRepository(int waiting) {
+            this.waiting = waiting;
+            this.first = new AtomicBoolean(true);
+        }
+
+        @Override
+        public References resolve(Request request) throws IOException, CyclicDependency {
+            long deadline;
+
+            if (first.getAndSet(false)) {
+                deadline = System.currentTimeMillis() + 30000;
+                while (engine.coalesced() < waiting) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IOException("timeout, coalesced: " + engine.coalesced());
+                    }
+                    Thread.yield();
+                }
+            }
+            return super.resolve(request);
+        }
+    }
+
     private void assertEq(String expected, String found) {
         assertEquals(expected, found.replaceAll("//###.*\n", "//###\n"));
     }
@@ -0,0 +1,81 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HashingTest {
+    @Test
+    public void sha() throws IOException {
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", Hashing.create(Hashing.SHA).hash("abc".getBytes("utf-8")));
+    }
+
+    @Test
+    public void murmur3() throws IOException {
+        Hashing murmur3;
+
+        murmur3 = Hashing.create(Hashing.MURMUR3);
+        assertEquals("00000000000000000000000000000000", murmur3.hash(new byte[0]));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a",
+                murmur3.hash("The quick brown fox jumps over the lazy dog".getBytes("utf-8")));
+    }
+
+    @Test
+    public void incremental() throws IOException {
+        incremental(Hashing.create(Hashing.SHA));
+        incremental(Hashing.create(Hashing.MURMUR3));
+    }
+
+    private void incremental(Hashing hashing) throws IOException {
+        Random random;
+        byte[] bytes;
+        Hashing.Hasher hasher;
+        ByteArrayOutputStream dest;
+        OutputStream stream;
+        int ofs;
+        int len;
+
+        random = new Random(0);
+        for (int length = 0; length < 100; length++) {
+            bytes = new byte[length];
+            random.nextBytes(bytes);
+            hasher = hashing.hasher();
+            dest = new ByteArrayOutputStream();
+            stream = new Hashing.HashingOutputStream(dest, hasher);
+            for (ofs = 0; ofs < length; ofs += len) {
+                len = Math.min(length - ofs, random.nextInt(20));
+                stream.write(bytes, ofs, len);
+            }
+            stream.close();
+            assertArrayEquals(bytes, dest.toByteArray());
+            assertEquals(hashing.name + " " + length, hashing.hash(bytes), hasher.finish());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknown() {
+        Hashing.create("md4");
+    }
+}
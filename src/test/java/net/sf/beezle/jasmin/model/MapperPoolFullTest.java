@@ -0,0 +1,62 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import net.sf.beezle.mork.mapping.ExceptionErrorHandler;
+import net.sf.beezle.mork.mapping.Mapper;
+import net.sf.beezle.sushi.fs.Node;
+import net.sf.beezle.sushi.fs.World;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+
+/** Css build latency with a new mapper per build (as before MapperPool) vs. pooled mappers. */
+public class MapperPoolFullTest {
+    private static final int REPEAT = 50;
+
+    @Test
+    public void latency() throws Exception {
+        World world;
+        Node css;
+        MapperPool pool;
+        Mapper mapper;
+        long started;
+
+        world = new World();
+        css = world.guessProjectHome(MapperPoolFullTest.class).join("src/test/resources/sub/my.css");
+        started = System.currentTimeMillis();
+        for (int i = 0; i < REPEAT; i++) {
+            assertNotNull(new Mapper("net.sf.beezle.ssass.Mapper", new ExceptionErrorHandler()).run(css));
+        }
+        report("new mapper", started);
+        pool = new MapperPool("net.sf.beezle.ssass.Mapper", 1);
+        started = System.currentTimeMillis();
+        for (int i = 0; i < REPEAT; i++) {
+            mapper = pool.borrow();
+            try {
+                assertNotNull(mapper.run(css));
+            } finally {
+                pool.release(mapper);
+            }
+        }
+        report("pooled (" + pool.created() + " created)", started);
+    }
+
+    private static void report(String name, long started) {
+        System.out.println(name + ": " + (System.currentTimeMillis() - started) / (double) REPEAT + " ms per css build");
+    }
+}
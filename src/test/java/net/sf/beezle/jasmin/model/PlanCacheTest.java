@@ -0,0 +1,39 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlanCacheTest {
+    @Test
+    public void emptyPlansEvicted() {
+        PlanCache cache;
+        long now;
+
+        cache = new PlanCache(100);
+        now = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            cache.add(Request.parse("two/css/v" + i), new References(MimeType.CSS, false), now, 0);
+            assertTrue("items: " + cache.items(), cache.items() <= 100);
+        }
+        assertEquals(cache.items(), cache.size());
+        cache.validate();
+    }
+}
@@ -23,11 +23,15 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class RepositoryTest {
@@ -122,11 +126,86 @@ public class RepositoryTest {
         check("sub.bar+!foo/css/x");
     }
 
+    @Test
+    public void resolvePlanned() throws Exception {
+        References first;
+
+        first = repository.resolve(Request.parse("foo/css/x"));
+        assertSame(first, repository.resolve(Request.parse("foo/css/x")));
+        assertEquals(1, repository.plans().items());
+        assertEquals(1, repository.plans().misses());
+    }
+
     @Test(expected = CyclicDependency.class)
     public void resolveDuplicate() throws Exception {
         check("foo+foo/css/x", "my.css");
     }
 
+    @Test(expected = CyclicDependency.class)
+    public void resolveExcludesInconsistent() throws Exception {
+        check("two+!foo+!sub.bar/css/x");
+    }
+
+    @Test
+    public void linkedFallback() throws Exception {
+        List<Module> none;
+
+        none = new ArrayList<Module>();
+        assertNotNull(repository.sequenceLinked(modules("foo", "two"), none));
+        assertNull(repository.sequenceLinked(modules("two", "foo"), none));
+        assertNull(repository.sequenceLinked(modules("foo", "foo"), none));
+        assertNull(repository.sequenceLinked(modules("two"), modules("foo", "sub.bar")));
+    }
+
+    /** The linked order may differ from Graph.sort for independent modules only */
+    @Test
+    public void linkedSequence() throws Exception {
+        List<Module> none;
+
+        none = new ArrayList<Module>();
+        for (Module left : repository.modules()) {
+            checkLinked(Arrays.asList(left), none);
+            for (Module right : repository.modules()) {
+                checkLinked(Arrays.asList(left, right), none);
+                checkLinked(Arrays.asList(left), Arrays.asList(right));
+            }
+        }
+    }
+
+    private void checkLinked(List<Module> includes, List<Module> excludes) throws CyclicDependency {
+        List<Module> linked;
+        List<Module> expected;
+        int position;
+
+        linked = repository.sequenceLinked(includes, excludes);
+        if (linked == null) {
+            return;
+        }
+        expected = repository.sequence(includes);
+        expected.removeAll(repository.sequence(excludes));
+        assertEquals(new HashSet<Module>(expected), new HashSet<Module>(linked));
+        assertEquals(expected.size(), linked.size());
+        for (int i = 0; i < linked.size(); i++) {
+            for (Module dependency : linked.get(i).dependencies()) {
+                position = linked.indexOf(dependency);
+                assertTrue(linked + ": " + dependency, position < i);
+            }
+        }
+        for (int i = 1; i < includes.size(); i++) {
+            assertTrue(linked.toString(), linked.indexOf(includes.get(i - 1)) < linked.indexOf(includes.get(i)));
+        }
+    }
+
+    private List<Module> modules(String... names) {
+        List<Module> result;
+
+        result = new ArrayList<Module>();
+        for (String name : names) {
+            result.add(repository.get(name));
+        }
+        return result;
+    }
+
     private void check(String request, String... expected) throws Exception {
         References references;
 
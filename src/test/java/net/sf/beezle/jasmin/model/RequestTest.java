@@ -77,4 +77,14 @@ public class RequestTest {
         assertEquals("x", request.modules);
         assertEquals("foo", request.variant);
     }
+
+    @Test
+    public void equals() {
+        assertEquals(Request.parse("a+b/js/x"), Request.parse("a+b/js/x"));
+        assertEquals(Request.parse("a+b/js/x").hashCode(), Request.parse("a+b/js/x").hashCode());
+        assertFalse(Request.parse("a+b/js/x").equals(Request.parse("a+b/js-min/x")));
+        assertFalse(Request.parse("a+b/js/x").equals(Request.parse("a+b/css/x")));
+        assertFalse(Request.parse("a+b/js/x").equals(Request.parse("a+b/js/y")));
+        assertFalse(Request.parse("a+b/js/x").equals(Request.parse("b+a/js/x")));
+    }
 }
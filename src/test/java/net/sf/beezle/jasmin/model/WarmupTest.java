@@ -0,0 +1,91 @@
+/**
+ * Copyright 1&1 Internet AG, http://www.1and1.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.beezle.jasmin.model;
+
+import net.sf.beezle.jasmin.descriptor.Base;
+import net.sf.beezle.sushi.fs.World;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WarmupTest {
+    @Test
+    public void paths() throws IOException {
+        List<String> paths;
+
+        paths = Warmup.paths(engine().repository);
+        assertTrue(paths.contains("foo/js/lead"));
+        assertTrue(paths.contains("foo/css-min/special"));
+    }
+
+    @Test
+    public void warmup() throws Exception {
+        Engine engine;
+        Warmup warmup;
+        int builds;
+
+        engine = engine();
+        warmup = new Warmup(engine, Warmup.paths(engine.repository), 4).start();
+        warmup.await();
+        assertTrue(warmup.isDone());
+        assertEquals(0, warmup.remaining());
+        builds = engine.builds();
+        assertTrue(builds > 0);
+        engine.process("foo/js/lead");
+        engine.process("two/js-min/lead");
+        assertEquals(builds, engine.builds());
+    }
+
+    @Test
+    public void max() throws Exception {
+        Engine engine;
+        Warmup warmup;
+
+        engine = engine();
+        warmup = new Warmup(engine, Arrays.asList("foo/js/lead", "foo/js/lead", "two/js/lead", "foo/css/lead"), 2, 2).start();
+        warmup.await();
+        assertEquals(2, warmup.size());
+        assertEquals(2, engine.builds());
+        engine.process("two/js/lead");
+        assertEquals(2, engine.builds());
+    }
+
+    @Test
+    public void empty() throws Exception {
+        Warmup warmup;
+
+        warmup = new Warmup(engine(), new ArrayList<String>(), 1).start();
+        warmup.await();
+        assertEquals(0, warmup.size());
+    }
+
+    private static Engine engine() throws IOException {
+        World world;
+        Resolver resolver;
+
+        world = new World();
+        resolver = new Resolver(world, true);
+        resolver.add(Base.CLASSPATH, world.guessProjectHome(WarmupTest.class).join("src/test/resources"));
+        return new Engine(Repository.load(resolver));
+    }
+}